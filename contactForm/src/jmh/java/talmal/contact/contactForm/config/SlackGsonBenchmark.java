@@ -0,0 +1,105 @@
+package talmal.contact.contactForm.config;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import com.google.gson.reflect.TypeToken;
+
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.SenderType;
+
+/**
+ * SlackGson encode/decode of a single chat message and of a chat history, and the AMQP codec on top of it
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SlackGsonBenchmark
+{
+	@Param({ "10", "500" })
+	private int historySize;
+
+	private ChatMessage chatMessage;
+	private String chatMessageJson;
+	private List<ChatMessage> history;
+	private String historyJson;
+	private SlackMessageConverter messageConverter;
+	private Message amqpMessage;
+
+	@Setup
+	public void setup()
+	{
+		this.chatMessage = SlackGsonBenchmark.chatMessage(0);
+		this.chatMessageJson = SlackGson.toJson(this.chatMessage);
+		this.history = new ArrayList<ChatMessage>();
+		for (int index = 0; index < this.historySize; index++)
+		{
+			this.history.add(SlackGsonBenchmark.chatMessage(index));
+		}
+
+		this.historyJson = SlackGson.toJson(this.history);
+		this.messageConverter = new SlackMessageConverter();
+		this.amqpMessage = this.messageConverter.toMessage(this.chatMessage, new MessageProperties());
+	}
+
+	static ChatMessage chatMessage(int index)
+	{
+		return new ChatMessage("C04ABCDEF12-1667000000.123456", "1667000" + index + ".000100", "Jane Doe",
+			"message number " + index + " of a typical support conversation", Instant.ofEpochSecond(1667000000L + index), SenderType.USER);
+	}
+
+	@Benchmark
+	public String encodeChatMessage()
+	{
+		return SlackGson.toJson(this.chatMessage);
+	}
+
+	@Benchmark
+	public ChatMessage decodeChatMessage()
+	{
+		return SlackGson.fromJson(this.chatMessageJson, ChatMessage.class);
+	}
+
+	@Benchmark
+	public String encodeHistory()
+	{
+		return SlackGson.toJson(this.history);
+	}
+
+	@Benchmark
+	public List<ChatMessage> decodeHistory()
+	{
+		return SlackGson.fromJson(this.historyJson, new TypeToken<ArrayList<ChatMessage>>(){}.getType());
+	}
+
+	@Benchmark
+	public Message toAmqpMessage()
+	{
+		return this.messageConverter.toMessage(this.chatMessage, new MessageProperties());
+	}
+
+	@Benchmark
+	public Object fromAmqpMessage()
+	{
+		return this.messageConverter.fromMessage(this.amqpMessage);
+	}
+}
@@ -0,0 +1,94 @@
+package talmal.contact.contactForm.config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * blocking calls of many concurrent chats, e.g. web socket writes to slow clients or queue sends,
+ * on the default bounded pool of platform threads compared with a virtual thread per call.<br>
+ * the virtual mode needs java 21, run with: mvn -Pbenchmark compile exec:exec@jmh -Djmh.args=ThreadingBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadingBenchmark
+{
+	@Param({ "platform", "virtual" })
+	private String threads;
+
+	@Param({ "1000", "10000" })
+	private int concurrentChats;
+
+	// time a single call is blocked, e.g. waiting for a slow client to read
+	@Param({ "1" })
+	private long blockedMillis;
+
+	private ExecutorService executor;
+
+	@Setup
+	public void setup()
+	{
+		if ("virtual".equals(this.threads))
+		{
+			this.executor = ThreadingConfig.newVirtualThreadPerTaskExecutor();
+			if (this.executor == null)
+			{
+				throw new IllegalStateException("Virtual threads are not supported by java " + System.getProperty("java.version"));
+			}
+		}
+		else
+		{
+			// same size as the default services.websocket.sendThreads
+			this.executor = Executors.newFixedThreadPool(64);
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		this.executor.shutdownNow();
+	}
+
+	@Benchmark
+	public long blockingCalls() throws InterruptedException
+	{
+		CountDownLatch done = new CountDownLatch(this.concurrentChats);
+		for (int index = 0; index < this.concurrentChats; index++)
+		{
+			this.executor.execute(() ->
+			{
+				try
+				{
+					Thread.sleep(this.blockedMillis);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+
+				done.countDown();
+			});
+		}
+
+		done.await();
+		return done.getCount();
+	}
+}
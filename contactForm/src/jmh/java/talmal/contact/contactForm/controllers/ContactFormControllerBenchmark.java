@@ -0,0 +1,92 @@
+package talmal.contact.contactForm.controllers;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import talmal.contact.contactForm.config.SlackGson;
+import talmal.contact.contactForm.config.ThreadingConfig;
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.SenderType;
+import talmal.contact.contactForm.services.ChatHistoryCache;
+import talmal.contact.contactForm.services.ContactFormMetrics;
+import talmal.contact.contactForm.websocket.HandshakeQuery;
+import talmal.contact.contactForm.websocket.OutboundWebSocketSession.OverflowPolicy;
+import talmal.contact.contactForm.websocket.WebSocketSessionRegistry;
+
+/**
+ * web socket hot paths of the controller: query parsing at connection time, and fan-out of a message from slack 
+ * to the open sessions of its chat, among many open chats
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContactFormControllerBenchmark
+{
+	private static final String CHAT_ID = "C04ABCDEF12-1667000000.123456";
+
+	// open sessions of the chat the message is sent to
+	@Param({ "1", "10", "100" })
+	private int sessionsPerChat;
+
+	// other open chats in the registry
+	@Param({ "1000" })
+	private int openChats;
+
+	private final String queryString = "chatId=" + ContactFormControllerBenchmark.CHAT_ID + "&lang=en";
+	private ContactFormController controller;
+	private String chatMessageJson;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		this.controller = new ContactFormController();
+		this.controller.contactFormMetrics = new ContactFormMetrics(meterRegistry, 30000);
+		this.controller.chatHistoryCache = new ChatHistoryCache(true, 10000, 600000, meterRegistry);
+		this.controller.webSocketConnections = new WebSocketSessionRegistry(10000, 512 * 1024, OverflowPolicy.DROP_OLDEST, 64, new ThreadingConfig(false), meterRegistry);
+
+		for (int chat = 0; chat < this.openChats; chat++)
+		{
+			this.controller.webSocketConnections.add("chat-" + chat, new NoopWebSocketSession("other-" + chat, URI.create("ws://localhost/?chatId=chat-" + chat)));
+		}
+
+		for (int session = 0; session < this.sessionsPerChat; session++)
+		{
+			this.controller.webSocketConnections.add(ContactFormControllerBenchmark.CHAT_ID, 
+				new NoopWebSocketSession("session-" + session, URI.create("ws://localhost/?" + this.queryString)));
+		}
+
+		this.chatMessageJson = SlackGson.toJson(new ChatMessage(ContactFormControllerBenchmark.CHAT_ID, "1667000000.000100", "Support",
+			"thanks for reaching out, we are looking into it", Instant.ofEpochSecond(1667000000L), SenderType.OWNER));
+	}
+
+	@Benchmark
+	public String getChatId()
+	{
+		return HandshakeQuery.getChatId(this.queryString, "chatId");
+	}
+
+	@Benchmark
+	public void consumeMessageQueue()
+	{
+		this.controller.consumeMessageQueue(this.chatMessageJson);
+	}
+}
@@ -0,0 +1,138 @@
+package talmal.contact.contactForm.controllers;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * web socket session that only counts the bytes sent to it
+ */
+public class NoopWebSocketSession implements WebSocketSession
+{
+	private final String id;
+	private final URI uri;
+	private final Map<String, Object> attributes;
+	private final AtomicLong sentBytes;
+
+	public NoopWebSocketSession(String id, URI uri)
+	{
+		this.id = id;
+		this.uri = uri;
+		this.attributes = new ConcurrentHashMap<String, Object>();
+		this.sentBytes = new AtomicLong();
+	}
+
+	public long getSentBytes()
+	{
+		return this.sentBytes.get();
+	}
+
+	@Override
+	public String getId()
+	{
+		return this.id;
+	}
+
+	@Override
+	public URI getUri()
+	{
+		return this.uri;
+	}
+
+	@Override
+	public HttpHeaders getHandshakeHeaders()
+	{
+		return HttpHeaders.EMPTY;
+	}
+
+	@Override
+	public Map<String, Object> getAttributes()
+	{
+		return this.attributes;
+	}
+
+	@Override
+	public Principal getPrincipal()
+	{
+		return null;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress()
+	{
+		return null;
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress()
+	{
+		return null;
+	}
+
+	@Override
+	public String getAcceptedProtocol()
+	{
+		return null;
+	}
+
+	@Override
+	public void setTextMessageSizeLimit(int messageSizeLimit)
+	{
+	}
+
+	@Override
+	public int getTextMessageSizeLimit()
+	{
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public void setBinaryMessageSizeLimit(int messageSizeLimit)
+	{
+	}
+
+	@Override
+	public int getBinaryMessageSizeLimit()
+	{
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public List<WebSocketExtension> getExtensions()
+	{
+		return Collections.emptyList();
+	}
+
+	@Override
+	public void sendMessage(WebSocketMessage<?> message)
+	{
+		this.sentBytes.addAndGet(message.getPayloadLength());
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		return true;
+	}
+
+	@Override
+	public void close()
+	{
+	}
+
+	@Override
+	public void close(CloseStatus status)
+	{
+	}
+}
@@ -0,0 +1,47 @@
+package talmal.contact.contactForm.models.jsonElements;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import talmal.contact.contactForm.config.SlackGson;
+import talmal.contact.contactForm.models.context.ChatMessage;
+
+/**
+ * decoding of inbound web socket frames: FrameDecoder against the previous Gson map based decoding.<br>
+ * run with -Djmh.args="-prof gc FrameDecoderBenchmark" to compare gc.alloc.rate.norm (bytes per frame)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrameDecoderBenchmark
+{
+	// the previous decoding only accepted ISO-8601 dates
+	private final String frame = "{\"chatId\":\"C04ABCDEF12-1667000000.123456\",\"messageId\":null,\"name\":\"Jane Doe\","
+		+ "\"message\":\"hello, I have a question about my order\",\"date\":\"2022-10-29T00:13:20Z\",\"senderType\":\"USER\"}";
+
+	@Benchmark
+	public DecodeResult<ChatMessage> frameDecoder()
+	{
+		return FrameDecoder.decodeChatMessage(this.frame);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Benchmark
+	public ChatMessage gsonMap()
+	{
+		return new ChatMessage(SlackGson.fromJson(this.frame, Map.class));
+	}
+}
@@ -0,0 +1,77 @@
+package talmal.contact.contactForm.services;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import talmal.contact.contactForm.config.SlackGson;
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.SenderType;
+
+/**
+ * parsing of message queue replies: single chat message reply and streamed chat history reply
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContactFormServiceBenchmark
+{
+	@Param({ "10", "500" })
+	private int historySize;
+
+	private ChatMessage request;
+	private String response;
+	private String historyResponse;
+
+	@Setup
+	public void setup()
+	{
+		this.request = new ChatMessage("C04ABCDEF12-1667000000.123456", null, "Jane Doe", "hello", Instant.ofEpochSecond(1667000000L), SenderType.USER);
+		this.response = SlackGson.toJson(new ChatMessage("C04ABCDEF12-1667000000.123456", "1667000000.000100", "Jane Doe", "hello", 
+			Instant.ofEpochSecond(1667000000L), SenderType.USER));
+
+		List<ChatMessage> history = new ArrayList<ChatMessage>();
+		for (int index = 0; index < this.historySize; index++)
+		{
+			history.add(new ChatMessage("C04ABCDEF12-1667000000.123456", "1667000" + index + ".000100", "Jane Doe", "message number " + index,
+				Instant.ofEpochSecond(1667000000L + index), SenderType.USER));
+		}
+
+		this.historyResponse = SlackGson.toJson(history);
+	}
+
+	@Benchmark
+	public ChatMessage parseQueueResponse()
+	{
+		return ContactFormService.parseQueueResponse(this.request, this.response).block();
+	}
+
+	@Benchmark
+	public ChatMessage parseQueueResponseStreamFirst()
+	{
+		// time to the first message of the history
+		return ContactFormService.parseQueueResponseStream(this.request.getChatId(), this.historyResponse).blockFirst();
+	}
+
+	@Benchmark
+	public Long parseQueueResponseStreamAll()
+	{
+		return ContactFormService.parseQueueResponseStream(this.request.getChatId(), this.historyResponse).count().block();
+	}
+}
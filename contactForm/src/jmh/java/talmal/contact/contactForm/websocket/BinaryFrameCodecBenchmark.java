@@ -0,0 +1,73 @@
+package talmal.contact.contactForm.websocket;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import talmal.contact.contactForm.config.SlackGson;
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.SenderType;
+import talmal.contact.contactForm.models.jsonElements.DecodeResult;
+import talmal.contact.contactForm.models.jsonElements.FrameDecoder;
+
+/**
+ * binary framing of a chat message against the json text frame it replaces, encoded on the fan-out path and decoded from frontend
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BinaryFrameCodecBenchmark
+{
+	private static final String CHAT_ID = "C04ABCDEF12-1667000000.123456";
+
+	private ChatMessage chatMessage;
+	private String textFrame;
+	private ByteBuffer binaryFrame;
+
+	@Setup
+	public void setup()
+	{
+		this.chatMessage = new ChatMessage(BinaryFrameCodecBenchmark.CHAT_ID, "1667000000.000100", "Jane Doe",
+			"thanks for reaching out, we are looking into it", Instant.ofEpochSecond(1667000000L), SenderType.USER);
+		this.textFrame = SlackGson.toJson(this.chatMessage);
+		this.binaryFrame = ByteBuffer.wrap(BinaryFrameCodec.encode(this.chatMessage));
+	}
+
+	@Benchmark
+	public String encodeText()
+	{
+		return SlackGson.toJson(this.chatMessage);
+	}
+
+	@Benchmark
+	public byte[] encodeBinary()
+	{
+		return BinaryFrameCodec.encode(this.chatMessage);
+	}
+
+	@Benchmark
+	public DecodeResult<ChatMessage> decodeText()
+	{
+		return FrameDecoder.decodeChatMessage(this.textFrame);
+	}
+
+	@Benchmark
+	public DecodeResult<ChatMessage> decodeBinary()
+	{
+		return BinaryFrameCodec.decodeChatMessage(this.binaryFrame, BinaryFrameCodecBenchmark.CHAT_ID);
+	}
+}
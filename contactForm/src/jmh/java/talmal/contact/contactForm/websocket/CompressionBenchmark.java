@@ -0,0 +1,189 @@
+package talmal.contact.contactForm.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import talmal.contact.contactForm.config.SlackGson;
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.SenderType;
+
+/**
+ * bytes on wire against cpu of a history replay, as json text frames:<br>
+ * none - frames as is,
+ * deflate - permessage-deflate with context takeover, each frame flushed on its own and compressed with the previous ones as dictionary,
+ * deflateNoContextTakeover - permessage-deflate with a fresh dictionary per frame,
+ * gzip - the history as a single gzip response, like the /contact/follow stream.<br>
+ * wire bytes are reported as the bytes and replays secondary results, bytes / replays is the size of a single replay
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark
+{
+	@Param({ "10", "100", "500" })
+	private int historySize;
+
+	@Param({ "1", "6" })
+	private int level;
+
+	private List<byte[]> frames;
+	private byte[] output;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class WireBytes
+	{
+		public long bytes;
+		public long replays;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			this.bytes = 0;
+			this.replays = 0;
+		}
+	}
+
+	@Setup
+	public void setup()
+	{
+		this.frames = new ArrayList<byte[]>();
+		for (int index = 0; index < this.historySize; index++)
+		{
+			ChatMessage chatMessage = new ChatMessage("C04ABCDEF12-1667000000.123456", "1667000" + index + ".000100",
+				index % 3 == 0 ? "Support" : "Jane Doe", "message number " + index + " of a typical support conversation",
+				Instant.ofEpochSecond(1667000000L + index), index % 3 == 0 ? SenderType.OWNER : SenderType.USER);
+			this.frames.add(SlackGson.toJson(chatMessage).getBytes(StandardCharsets.UTF_8));
+		}
+
+		this.output = new byte[64 * 1024];
+	}
+
+	@Benchmark
+	public long none(WireBytes wireBytes)
+	{
+		long bytes = 0;
+		for (byte[] frame : this.frames)
+		{
+			bytes += frame.length;
+		}
+
+		return this.count(wireBytes, bytes);
+	}
+
+	@Benchmark
+	public long deflate(WireBytes wireBytes)
+	{
+		Deflater deflater = new Deflater(this.level, true);
+		try
+		{
+			long bytes = 0;
+			for (byte[] frame : this.frames)
+			{
+				bytes += this.deflateFrame(deflater, frame);
+			}
+
+			return this.count(wireBytes, bytes);
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	@Benchmark
+	public long deflateNoContextTakeover(WireBytes wireBytes)
+	{
+		Deflater deflater = new Deflater(this.level, true);
+		try
+		{
+			long bytes = 0;
+			for (byte[] frame : this.frames)
+			{
+				bytes += this.deflateFrame(deflater, frame);
+				deflater.reset();
+			}
+
+			return this.count(wireBytes, bytes);
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	@Benchmark
+	public long gzip(WireBytes wireBytes) throws IOException
+	{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		GZIPOutputStream gzipOutputStream = new GZIPOutputStream(body)
+		{
+			{
+				this.def.setLevel(CompressionBenchmark.this.level);
+			}
+		};
+
+		// a json array, as written by the stream of messages
+		gzipOutputStream.write('[');
+		for (int index = 0; index < this.frames.size(); index++)
+		{
+			if (index > 0)
+			{
+				gzipOutputStream.write(',');
+			}
+
+			gzipOutputStream.write(this.frames.get(index));
+		}
+
+		gzipOutputStream.write(']');
+		gzipOutputStream.close();
+		return this.count(wireBytes, body.size());
+	}
+
+	private int deflateFrame(Deflater deflater, byte[] frame)
+	{
+		// a frame ends with a sync flush, its trailing 4 bytes are not sent (rfc 7692)
+		deflater.setInput(frame);
+		int size = 0;
+		int length;
+		do
+		{
+			length = deflater.deflate(this.output, 0, this.output.length, Deflater.SYNC_FLUSH);
+			size += length;
+		}
+		while (length == this.output.length);
+
+		return size - 4;
+	}
+
+	private long count(WireBytes wireBytes, long bytes)
+	{
+		wireBytes.bytes += bytes;
+		wireBytes.replays++;
+		return bytes;
+	}
+}
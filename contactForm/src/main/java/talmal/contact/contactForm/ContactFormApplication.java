@@ -1,20 +1,27 @@
 package talmal.contact.contactForm;
 
+import java.time.Duration;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.cloud.netflix.eureka.EnableEurekaClient;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
+import org.springframework.web.cors.reactive.CorsWebFilter;
 import org.springframework.web.filter.CorsFilter;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import lombok.extern.slf4j.Slf4j;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 @SpringBootApplication
 @EnableEurekaClient
@@ -26,11 +33,33 @@ public class ContactFormApplication
 		SpringApplication.run(ContactFormApplication.class, args);
 	}
 
+	/**
+	 * connection pool of the http transport to the message-sender service
+	 * @return
+	 */
+	@Bean(destroyMethod = "dispose")
+	public ConnectionProvider connectionProvider(
+		@Value(value = "${services.http.maxConnections:500}") int maxConnections,
+		@Value(value = "${services.http.pendingAcquireMaxCount:1000}") int pendingAcquireMaxCount,
+		@Value(value = "${services.http.pendingAcquireTimeout:5000}") long pendingAcquireTimeout,
+		@Value(value = "${services.http.maxIdleTime:30000}") long maxIdleTime,
+		@Value(value = "${services.http.evictInBackground:60000}") long evictInBackground)
+	{
+		return ConnectionProvider.builder("message-sender")
+			.maxConnections(maxConnections)
+			.pendingAcquireMaxCount(pendingAcquireMaxCount)
+			.pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeout))
+			.maxIdleTime(Duration.ofMillis(maxIdleTime))
+			.evictInBackground(Duration.ofMillis(evictInBackground))
+			.metrics(true)
+			.build();
+	}
+
 	@Bean
 	@LoadBalanced
-	public WebClient.Builder getWebClientBuilder()
+	public WebClient.Builder getWebClientBuilder(ConnectionProvider connectionProvider)
 	{
-		return WebClient.builder();
+		return WebClient.builder().clientConnector(new ReactorClientHttpConnector(HttpClient.create(connectionProvider)));
 	}
 
 	/**
@@ -38,7 +67,33 @@ public class ContactFormApplication
 	 * @return
 	 */
 	@Bean
+	@ConditionalOnWebApplication(type = Type.SERVLET)
 	public FilterRegistrationBean<CorsFilter> corsFilter(@Value("#{'${services.allowed_origins}'.split(',')}") List<String> allowedOrigins)
+	{
+		UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+		source.registerCorsConfiguration("/**", ContactFormApplication.corsConfiguration(allowedOrigins));
+		
+		FilterRegistrationBean<CorsFilter> bean = new FilterRegistrationBean<CorsFilter>(new CorsFilter(source));
+		bean.setOrder(0);
+		
+		return bean;
+	}
+
+	/**
+	 * same cros filter for the reactive stack, when running with spring.main.web-application-type=reactive
+	 * @return
+	 */
+	@Bean
+	@ConditionalOnWebApplication(type = Type.REACTIVE)
+	public CorsWebFilter corsWebFilter(@Value("#{'${services.allowed_origins}'.split(',')}") List<String> allowedOrigins)
+	{
+		org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource source = new org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource();
+		source.registerCorsConfiguration("/**", ContactFormApplication.corsConfiguration(allowedOrigins));
+		
+		return new CorsWebFilter(source);
+	}
+
+	private static CorsConfiguration corsConfiguration(List<String> allowedOrigins)
 	{
 		CorsConfiguration config = new CorsConfiguration();
 		config.setAllowCredentials(true);
@@ -49,12 +104,6 @@ public class ContactFormApplication
 		config.addAllowedHeader("*");
 		config.addAllowedMethod("*");
 		
-		UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
-		source.registerCorsConfiguration("/**", config);
-		
-		FilterRegistrationBean<CorsFilter> bean = new FilterRegistrationBean<CorsFilter>(new CorsFilter(source));
-		bean.setOrder(0);
-		
-		return bean;
+		return config;
 	}
 }
@@ -0,0 +1,160 @@
+package talmal.contact.contactForm.config;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+
+import lombok.extern.slf4j.Slf4j;
+import talmal.contact.contactForm.controllers.ReactiveContactFormHandler;
+import talmal.contact.contactForm.services.AdmissionControl;
+import talmal.contact.contactForm.websocket.WebSocketSessionRegistry;
+
+/**
+ * drain of the instance on shutdown.<br>
+ * runs on the ContextClosedEvent, which is published before any lifecycle bean stops,
+ * so the queues, the reply template and the web server are all still running while it drains.<br>
+ * new handshakes and requests are refused with 503, requests to slack in progress get until the drain timeout to finish,
+ * then the listener of messages from slack stops once its in flight messages are acked.<br>
+ * last, all web socket sessions are closed at once with SERVICE_RESTARTED (1012, service restarting),
+ * and a retry hint spread with jitter so the frontends do not all reconnect to the next instance at the same moment.<br>
+ * the whole drain is bounded by the drain timeout, the last closeTimeout of it is kept for closing the sessions.
+ * the web server shutdown (spring.lifecycle.timeout-per-shutdown-phase) only starts after it,
+ * so the termination grace period of the instance must be longer than both together
+ */
+@Slf4j
+@Component
+public class GracefulDrain implements ApplicationListener<ContextClosedEvent>
+{
+	private static final String RETRY_AFTER_REASON = "retryAfter=";
+
+	// time between checks of the sessions left open
+	private static final long CLOSE_POLL_INTERVAL = 20;
+
+	private final ApplicationContext applicationContext;
+	private final AdmissionControl admissionControl;
+	private final RabbitListenerEndpointRegistry rabbitListenerEndpointRegistry;
+	private final WebSocketSessionRegistry webSocketConnections;
+	private final ObjectProvider<ReactiveContactFormHandler> reactiveHandler;
+	private final long timeout;
+	private final long closeTimeout;
+	private final AtomicBoolean drained = new AtomicBoolean();
+
+	public GracefulDrain(ApplicationContext applicationContext, AdmissionControl admissionControl, RabbitListenerEndpointRegistry rabbitListenerEndpointRegistry,
+		WebSocketSessionRegistry webSocketConnections, ObjectProvider<ReactiveContactFormHandler> reactiveHandler,
+		@Value(value = "${services.drain.timeout:15000}") long timeout,
+		@Value(value = "${services.drain.closeTimeout:5000}") long closeTimeout)
+	{
+		this.applicationContext = applicationContext;
+		this.admissionControl = admissionControl;
+		this.rabbitListenerEndpointRegistry = rabbitListenerEndpointRegistry;
+		this.webSocketConnections = webSocketConnections;
+		this.reactiveHandler = reactiveHandler;
+		this.timeout = timeout;
+		// the close of the sessions is part of the drain timeout, not added to it
+		this.closeTimeout = Math.min(closeTimeout, timeout);
+	}
+
+	@Override
+	public void onApplicationEvent(ContextClosedEvent event)
+	{
+		// child contexts (e.g. of spring cloud) publish their close to this context too
+		if (event.getApplicationContext() != this.applicationContext || !this.drained.compareAndSet(false, true))
+		{
+			return;
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+		long requestsDeadline = deadline - TimeUnit.MILLISECONDS.toNanos(this.closeTimeout);
+		log.info("Draining, {} requests to slack in progress", this.admissionControl.getInFlightRequests());
+
+		// refuse new handshakes and requests
+		this.admissionControl.startDraining();
+		AvailabilityChangeEvent.publish(this.applicationContext, this, ReadinessState.REFUSING_TRAFFIC);
+
+		// let the queue round trips in progress deliver their replies
+		try
+		{
+			if (!this.admissionControl.awaitInFlightRequests(requestsDeadline))
+			{
+				log.warn("Drain timeout, {} requests to slack still in progress", this.admissionControl.getInFlightRequests());
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		// waits for the messages from slack being processed to be acked
+		this.rabbitListenerEndpointRegistry.stop();
+
+		this.closeSessions(deadline);
+		log.info("Drained");
+	}
+
+	/**
+	 * close all sessions at once, a close handshake with an unresponsive frontend does not hold the others.<br>
+	 * a servlet session is closed through its outbound queue, after the messages already buffered for it
+	 * @param deadline - System.nanoTime() to stop waiting for the sessions at
+	 */
+	private void closeSessions(long deadline)
+	{
+		log.info("Closing {} web socket sessions", this.webSocketConnections.getSessionCount());
+
+		this.webSocketConnections.getAllSessions().forEach(session ->
+		{
+			try
+			{
+				session.close(CloseStatus.SERVICE_RESTARTED.withReason(GracefulDrain.RETRY_AFTER_REASON + this.admissionControl.getDrainRetryAfterMillis()));
+			}
+			catch (IOException | RuntimeException e)
+			{
+				log.error(e.getMessage(), e);
+			}
+		});
+
+		ReactiveContactFormHandler reactiveContactFormHandler = this.reactiveHandler.getIfAvailable();
+		if (reactiveContactFormHandler != null)
+		{
+			try
+			{
+				reactiveContactFormHandler.closeAll(() -> org.springframework.web.reactive.socket.CloseStatus.SERVICE_RESTARTED
+					.withReason(GracefulDrain.RETRY_AFTER_REASON + this.admissionControl.getDrainRetryAfterMillis()))
+					.block(Duration.ofNanos(Math.max(deadline - System.nanoTime(), 0)));
+			}
+			catch (RuntimeException e)
+			{
+				log.warn("Failed closing reactive web socket sessions: {}", e.getMessage());
+			}
+		}
+
+		// a servlet session leaves the registry once the container closed it
+		try
+		{
+			while (this.webSocketConnections.getSessionCount() > 0 && System.nanoTime() < deadline)
+			{
+				Thread.sleep(GracefulDrain.CLOSE_POLL_INTERVAL);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		if (this.webSocketConnections.getSessionCount() > 0)
+		{
+			log.warn("Timeout closing web socket sessions, {} still open", this.webSocketConnections.getSessionCount());
+		}
+	}
+}
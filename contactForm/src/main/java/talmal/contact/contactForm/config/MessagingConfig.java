@@ -1,57 +1,235 @@
-package talmal.contact.contactForm.config;
-
-import org.springframework.amqp.core.AmqpTemplate;
-import org.springframework.amqp.core.BindingBuilder;
-import org.springframework.amqp.core.Declarables;
-import org.springframework.amqp.core.Queue;
-import org.springframework.amqp.core.TopicExchange;
-import org.springframework.amqp.rabbit.connection.ConnectionFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
-import org.springframework.amqp.support.converter.MessageConverter;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-
-@Configuration
-public class MessagingConfig
-{
-	// these definitions need to be final so they can be used in annotations
-	public static final String CHAT_EXCHANGE = "chatExchange";
-	public static final String TO_SLACK_NEW_MESSAGE_QUEUE = "to.slack.new.message";
-	public static final String TO_SLACK_START_CHAT_QUEUE = "to.slack.start.chat";
-	public static final String TO_SLACK_LOAD_CHAT_QUEUE = "to.slack.load.messages";
-	public static final String FROM_SLACK_NEW_MESSAGE_QUEUE = "from.slack.new.message";
-
-	@Bean
-	public Declarables topicBindings()
-	{
-		TopicExchange topicExchange = new TopicExchange(MessagingConfig.CHAT_EXCHANGE);
-		Queue toSlackNewMessageQueue = new Queue(MessagingConfig.TO_SLACK_NEW_MESSAGE_QUEUE, false);
-		Queue toSlackStartChatQueue = new Queue(MessagingConfig.TO_SLACK_START_CHAT_QUEUE, false);
-		Queue toSlackLoadMessagesQueue = new Queue(MessagingConfig.TO_SLACK_LOAD_CHAT_QUEUE, false);
-
-		return new Declarables(topicExchange,  
-				toSlackNewMessageQueue, BindingBuilder.bind(toSlackNewMessageQueue).to(topicExchange).with(toSlackNewMessageQueue.getName()),
-				toSlackStartChatQueue, BindingBuilder.bind(toSlackStartChatQueue).to(topicExchange).with(toSlackStartChatQueue.getName()),
-				toSlackLoadMessagesQueue, BindingBuilder.bind(toSlackLoadMessagesQueue).to(topicExchange).with(toSlackLoadMessagesQueue.getName())
-				);
-	}
-	
-	@Bean
-	public MessageConverter messageConverter()
-	{
-		return new Jackson2JsonMessageConverter();
-	}
-
-	@Bean
-	public AmqpTemplate amqpTemplate(ConnectionFactory connectionFactory)
-	{
-//		connectionFactory.addConnectionListener(new ConnectionListener()
-		
-		final RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
-		rabbitTemplate.setExchange(MessagingConfig.CHAT_EXCHANGE);
-		rabbitTemplate.setMessageConverter(this.messageConverter());
-//		rabbitTemplate.setReplyTimeout(30000); // defined with environment variables
-		return rabbitTemplate;
-	}
-}
+package talmal.contact.contactForm.config;
+
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Base64UrlNamingStrategy;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+@Configuration
+public class MessagingConfig
+{
+	// these definitions need to be final so they can be used in annotations
+	public static final String CHAT_EXCHANGE = "chatExchange";
+	public static final String TO_SLACK_NEW_MESSAGE_QUEUE = "to.slack.new.message";
+	public static final String TO_SLACK_START_CHAT_QUEUE = "to.slack.start.chat";
+	public static final String TO_SLACK_LOAD_CHAT_QUEUE = "to.slack.load.messages";
+	public static final String FROM_SLACK_NEW_MESSAGE_QUEUE = "from.slack.new.message";
+	public static final String DEAD_LETTER_EXCHANGE = "chatExchange.dlx";
+	public static final String DEAD_LETTER_QUEUE_SUFFIX = ".dlq";
+
+	// when true, every instance receives every message from slack on its own queue and keeps only the chats it holds
+	@Value(value = "${services.queue.broadcast:false}")
+	private boolean broadcast;
+
+	// exclusive, auto-delete queue of this instance, removed by the broker when the instance disconnects
+	private final AnonymousQueue instanceQueue = new AnonymousQueue(new Base64UrlNamingStrategy(MessagingConfig.FROM_SLACK_NEW_MESSAGE_QUEUE + "."));
+
+	/**
+	 * type of the queues declared by this service
+	 */
+	public enum QueueType
+	{
+		CLASSIC, QUORUM, LAZY
+	}
+
+	// topology of the queues to slack, the defaults are the plain non durable classic queues.
+	// the broker rejects declaring an existing queue with other arguments, so a queue has to be deleted (or drained under a new name) to change them
+	@Value(value = "${services.queue.topology.type:CLASSIC}")
+	private QueueType queueType;
+
+	@Value(value = "${services.queue.topology.durable:false}")
+	private boolean durable;
+
+	// milliseconds a message waits in the queue before it expires, 0 for no limit
+	@Value(value = "${services.queue.topology.messageTtl:0}")
+	private int messageTtl;
+
+	// messages in the queue before the oldest is dropped (or new ones rejected, by overflow), 0 for no limit
+	@Value(value = "${services.queue.topology.maxLength:0}")
+	private int maxLength;
+
+	@Value(value = "${services.queue.topology.overflow:drop-head}")
+	private String overflow;
+
+	// expired and dropped messages are moved to <queue>.dlq through the dead letter exchange
+	@Value(value = "${services.queue.topology.deadLetter:false}")
+	private boolean deadLetter;
+
+	@Bean
+	public Declarables topicBindings()
+	{
+		TopicExchange topicExchange = new TopicExchange(MessagingConfig.CHAT_EXCHANGE);
+		Queue toSlackNewMessageQueue = this.toSlackQueue(MessagingConfig.TO_SLACK_NEW_MESSAGE_QUEUE);
+		Queue toSlackStartChatQueue = this.toSlackQueue(MessagingConfig.TO_SLACK_START_CHAT_QUEUE);
+		Queue toSlackLoadMessagesQueue = this.toSlackQueue(MessagingConfig.TO_SLACK_LOAD_CHAT_QUEUE);
+
+		Declarables declarables = new Declarables(topicExchange,  
+				toSlackNewMessageQueue, BindingBuilder.bind(toSlackNewMessageQueue).to(topicExchange).with(toSlackNewMessageQueue.getName()),
+				toSlackStartChatQueue, BindingBuilder.bind(toSlackStartChatQueue).to(topicExchange).with(toSlackStartChatQueue.getName()),
+				toSlackLoadMessagesQueue, BindingBuilder.bind(toSlackLoadMessagesQueue).to(topicExchange).with(toSlackLoadMessagesQueue.getName())
+				);
+
+		if (this.deadLetter)
+		{
+			// dead letters keep their routing key, so each queue gets its own dead letter queue
+			DirectExchange deadLetterExchange = new DirectExchange(MessagingConfig.DEAD_LETTER_EXCHANGE, this.isDurable(), false);
+			declarables.getDeclarables().add(deadLetterExchange);
+			for (String queueName : new String[] { MessagingConfig.TO_SLACK_NEW_MESSAGE_QUEUE, MessagingConfig.TO_SLACK_START_CHAT_QUEUE, MessagingConfig.TO_SLACK_LOAD_CHAT_QUEUE })
+			{
+				Queue deadLetterQueue = new Queue(queueName + MessagingConfig.DEAD_LETTER_QUEUE_SUFFIX, this.isDurable());
+				declarables.getDeclarables().add(deadLetterQueue);
+				declarables.getDeclarables().add(BindingBuilder.bind(deadLetterQueue).to(deadLetterExchange).with(queueName));
+			}
+		}
+
+		return declarables;
+	}
+
+	/**
+	 * @param name
+	 * @return queue to slack with the configured topology
+	 */
+	private Queue toSlackQueue(String name)
+	{
+		QueueBuilder queueBuilder = this.isDurable() ? QueueBuilder.durable(name) : QueueBuilder.nonDurable(name);
+		if (this.queueType == QueueType.QUORUM)
+		{
+			queueBuilder.quorum();
+		}
+		else if (this.queueType == QueueType.LAZY)
+		{
+			queueBuilder.lazy();
+		}
+
+		if (this.messageTtl > 0)
+		{
+			queueBuilder.ttl(this.messageTtl);
+		}
+
+		if (this.maxLength > 0)
+		{
+			queueBuilder.maxLength(this.maxLength).withArgument("x-overflow", this.overflow);
+		}
+
+		if (this.deadLetter)
+		{
+			queueBuilder.deadLetterExchange(MessagingConfig.DEAD_LETTER_EXCHANGE).deadLetterRoutingKey(name);
+		}
+
+		return queueBuilder.build();
+	}
+
+	/**
+	 * @return true if queues are declared durable, quorum queues are always durable
+	 */
+	private boolean isDurable()
+	{
+		return this.durable || this.queueType == QueueType.QUORUM;
+	}
+	
+	/**
+	 * bind the queue of this instance to messages from slack, only in broadcast mode
+	 * @return
+	 */
+	@Bean
+	public Declarables instanceBindings()
+	{
+		if (!this.broadcast)
+		{
+			return new Declarables();
+		}
+
+		TopicExchange topicExchange = new TopicExchange(MessagingConfig.CHAT_EXCHANGE);
+		return new Declarables(this.instanceQueue, 
+				BindingBuilder.bind(this.instanceQueue).to(topicExchange).with(MessagingConfig.FROM_SLACK_NEW_MESSAGE_QUEUE));
+	}
+
+	/**
+	 * @return name of the queue to consume messages from slack:<br>
+	 * the queue of this instance in broadcast mode, otherwise the queue shared by all instances
+	 */
+	public String getFromSlackQueueName()
+	{
+		return this.broadcast ? this.instanceQueue.getName() : MessagingConfig.FROM_SLACK_NEW_MESSAGE_QUEUE;
+	}
+
+	/**
+	 * @return true if every instance receives every message from slack
+	 */
+	public boolean isBroadcast()
+	{
+		return this.broadcast;
+	}
+
+	@Bean
+	public MessageConverter messageConverter()
+	{
+		return new SlackMessageConverter();
+	}
+
+	/**
+	 * container factory of @RabbitListener, configured from spring.rabbitmq.listener.simple.*<br>
+	 * consumers run on virtual threads when they are enabled
+	 * @param configurer
+	 * @param connectionFactory
+	 * @param threadingConfig
+	 * @param prefetch - unacknowledged messages the broker pushes to each consumer
+	 * @return
+	 */
+	@Bean
+	public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer, 
+		ConnectionFactory connectionFactory, ThreadingConfig threadingConfig, 
+		@Value(value = "${services.queue.listener.prefetch:${spring.rabbitmq.listener.simple.prefetch:250}}") int prefetch)
+	{
+		SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+		configurer.configure(factory, connectionFactory);
+		factory.setPrefetchCount(prefetch);
+		if (threadingConfig.isVirtual())
+		{
+			factory.setTaskExecutor(new TaskExecutorAdapter(threadingConfig.getVirtualThreadExecutor()));
+		}
+
+		return factory;
+	}
+
+	@Bean
+	public AmqpTemplate amqpTemplate(ConnectionFactory connectionFactory)
+	{
+//		connectionFactory.addConnectionListener(new ConnectionListener()
+		
+		final RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
+		rabbitTemplate.setExchange(MessagingConfig.CHAT_EXCHANGE);
+		rabbitTemplate.setMessageConverter(this.messageConverter());
+//		rabbitTemplate.setReplyTimeout(30000); // defined with environment variables
+		return rabbitTemplate;
+	}
+
+	/**
+	 * non blocking request/reply template, replies are correlated by correlation-id over direct reply-to
+	 * @param connectionFactory
+	 * @param replyTimeout - milliseconds to wait for a reply before the request fails
+	 * @return
+	 */
+	@Bean
+	public AsyncRabbitTemplate asyncRabbitTemplate(ConnectionFactory connectionFactory, @Value(value = "${services.queue.replyTimeout:30000}") long replyTimeout)
+	{
+		AsyncRabbitTemplate asyncRabbitTemplate = new AsyncRabbitTemplate((RabbitTemplate) this.amqpTemplate(connectionFactory));
+		asyncRabbitTemplate.setReceiveTimeout(replyTimeout);
+		return asyncRabbitTemplate;
+	}
+}
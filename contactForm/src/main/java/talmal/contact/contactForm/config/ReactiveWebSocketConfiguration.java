@@ -0,0 +1,96 @@
+package talmal.contact.contactForm.config;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.server.RequestUpgradeStrategy;
+import org.springframework.web.reactive.socket.server.WebSocketService;
+import org.springframework.web.reactive.socket.server.support.HandshakeWebSocketService;
+import org.springframework.web.reactive.socket.server.upgrade.ReactorNettyRequestUpgradeStrategy;
+import org.springframework.web.server.ServerWebExchange;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.server.WebsocketServerSpec;
+import talmal.contact.contactForm.controllers.ReactiveContactFormHandler;
+import talmal.contact.contactForm.models.context.ResumeCursor;
+import talmal.contact.contactForm.websocket.HandshakeQuery;
+
+/**
+ * web socket endpoint of the reactive stack, replaces WebSocketConfiguration when running with spring.main.web-application-type=reactive
+ */
+@Slf4j
+@Configuration
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class ReactiveWebSocketConfiguration implements WebFluxConfigurer
+{
+	@Value(value = "${services.query_key.chat_id}")
+	private String QUERY_KEY_CHAT_ID;
+
+	@Value(value = "${services.query_key.last_message_id:lastMessageId}")
+	private String QUERY_KEY_LAST_MESSAGE_ID;
+
+	@Value(value = "${services.query_key.since:since}")
+	private String QUERY_KEY_SINCE;
+
+	// permessage-deflate, negotiated only if the frontend requests it
+	@Value(value = "${services.websocket.compression.enabled:true}")
+	private boolean compressionEnabled;
+
+	@Bean
+	public HandlerMapping webSocketHandlerMapping(ReactiveContactFormHandler socketHandler)
+	{
+		// mapped before the annotated controllers, same path as the servlet web socket
+		return new SimpleUrlHandlerMapping(Map.of("/", socketHandler), Ordered.HIGHEST_PRECEDENCE);
+	}
+
+	@Override
+	public WebSocketService getWebSocketService()
+	{
+		return new ChatIdHandshakeWebSocketService(new ReactorNettyRequestUpgradeStrategy(WebsocketServerSpec.builder().compress(this.compressionEnabled)));
+	}
+
+	/**
+	 * binds the chat id and the resume cursor of the url query to the session once, before the upgrade,
+	 * a handshake without a valid chat id is rejected with 400 and no session is opened
+	 */
+	private class ChatIdHandshakeWebSocketService extends HandshakeWebSocketService
+	{
+		private ChatIdHandshakeWebSocketService(RequestUpgradeStrategy upgradeStrategy)
+		{
+			super(upgradeStrategy);
+		}
+
+		@Override
+		public Mono<Void> handleRequest(ServerWebExchange exchange, WebSocketHandler handler)
+		{
+			String rawQuery = exchange.getRequest().getURI().getRawQuery();
+			String chatId = HandshakeQuery.getChatId(rawQuery, ReactiveWebSocketConfiguration.this.QUERY_KEY_CHAT_ID);
+			if (chatId == null)
+			{
+				log.debug("Rejected handshake without a valid chat id: {}", exchange.getRequest().getURI());
+				exchange.getResponse().setStatusCode(HttpStatus.BAD_REQUEST);
+				return exchange.getResponse().setComplete();
+			}
+
+			if (!(handler instanceof ReactiveContactFormHandler))
+			{
+				return super.handleRequest(exchange, handler);
+			}
+
+			ResumeCursor resumeCursor = HandshakeQuery.getResumeCursor(rawQuery, 
+				ReactiveWebSocketConfiguration.this.QUERY_KEY_LAST_MESSAGE_ID, ReactiveWebSocketConfiguration.this.QUERY_KEY_SINCE);
+			return super.handleRequest(exchange, ((ReactiveContactFormHandler) handler).withChatId(chatId, resumeCursor));
+		}
+	}
+}
@@ -1,52 +1,86 @@
-package talmal.contact.contactForm.config;
-
-import java.lang.reflect.Type;
-import java.time.Instant;
-
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-
-import talmal.contact.contactForm.models.jsonElements.InstantDeserializer;
-import talmal.contact.contactForm.models.jsonElements.InstantSerializer;
-
-public class SlackGson
-{
-	private static Gson GSON;
-	
-	static
-	{
-		// Instant needs a custom json serializer, deSerializer
-		GsonBuilder gsonBuilder = new GsonBuilder();
-		gsonBuilder.registerTypeAdapter(Instant.class, new InstantSerializer());
-        gsonBuilder.registerTypeAdapter(Instant.class, new InstantDeserializer());
-        
-        SlackGson.GSON = gsonBuilder.setPrettyPrinting().create();
-	}
-	
-	public static String toJson(Object object)
-	{
-		return SlackGson.GSON.toJson(object);
-	}
-	
-	public static String toJson(Object object, Type typeOfSrc)
-	{
-		return SlackGson.GSON.toJson(object);
-	}
-	
-	public static <T> T fromJson(String json, Class<T> classOfT)
-	{
-		return SlackGson.GSON.fromJson(json, classOfT);
-	}
-	
-	public static <T> T fromJson(JsonElement json, Class<T> classOfT)
-	{
-		return SlackGson.GSON.fromJson(json, classOfT);
-	}
-	
-	public static <T> T fromJson(String json, Type typeOfSrc)
-	{
-		return SlackGson.GSON.fromJson(json, typeOfSrc);
-	}
-}
-
+package talmal.contact.contactForm.config;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.time.Instant;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+
+import talmal.contact.contactForm.models.jsonElements.InstantDeserializer;
+import talmal.contact.contactForm.models.jsonElements.InstantSerializer;
+
+public class SlackGson
+{
+	private static Gson GSON;
+	
+	static
+	{
+		// Instant needs a custom json serializer, deSerializer
+		GsonBuilder gsonBuilder = new GsonBuilder();
+		gsonBuilder.registerTypeAdapter(Instant.class, new InstantSerializer());
+        gsonBuilder.registerTypeAdapter(Instant.class, new InstantDeserializer());
+        
+        // compact output, every queue message and web socket frame goes through here
+        SlackGson.GSON = gsonBuilder.create();
+	}
+	
+	public static String toJson(Object object)
+	{
+		return SlackGson.GSON.toJson(object);
+	}
+	
+	public static String toJson(Object object, Type typeOfSrc)
+	{
+		return SlackGson.GSON.toJson(object, typeOfSrc);
+	}
+	
+	/**
+	 * write json of object straight to writer, without building an intermediate String
+	 * @param object
+	 * @param writer
+	 */
+	public static void toJson(Object object, Writer writer)
+	{
+		SlackGson.GSON.toJson(object, writer);
+	}
+	
+	public static <T> T fromJson(String json, Class<T> classOfT)
+	{
+		return SlackGson.GSON.fromJson(json, classOfT);
+	}
+	
+	public static <T> T fromJson(JsonElement json, Class<T> classOfT)
+	{
+		return SlackGson.GSON.fromJson(json, classOfT);
+	}
+	
+	public static <T> T fromJson(String json, Type typeOfSrc)
+	{
+		return SlackGson.GSON.fromJson(json, typeOfSrc);
+	}
+	
+	public static <T> T fromJson(Reader json, Class<T> classOfT)
+	{
+		return SlackGson.GSON.fromJson(json, classOfT);
+	}
+	
+	public static <T> T fromJson(JsonReader jsonReader, Class<T> classOfT)
+	{
+		return SlackGson.GSON.fromJson(jsonReader, classOfT);
+	}
+	
+	/**
+	 * create a streaming reader, to read large json documents one element at a time
+	 * @param reader
+	 * @return json reader, configured as the one used by fromJson(String)
+	 */
+	public static JsonReader newJsonReader(Reader reader)
+	{
+		return SlackGson.GSON.newJsonReader(reader);
+	}
+}
+
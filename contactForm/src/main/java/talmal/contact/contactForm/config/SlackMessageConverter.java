@@ -0,0 +1,108 @@
+package talmal.contact.contactForm.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * AMQP codec for queue messages.<br>
+ * objects are written by SlackGson once, as compact utf-8 json, straight into the message body.<br>
+ * message bodies are read back as the json String, bodies of peers still using Jackson2JsonMessageConverter 
+ * (json document encoded again as a json string literal) are unwrapped
+ */
+public class SlackMessageConverter implements MessageConverter
+{
+	// buffers larger than this are not kept for reuse, so one large history does not stay in memory
+	private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private static final ThreadLocal<PooledBuffer> BUFFERS = ThreadLocal.withInitial(PooledBuffer::new);
+
+	/**
+	 * write object as json to message body.<br>
+	 * content type is text/plain so peers with a String listener receive the json document as is
+	 */
+	@Override
+	public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException
+	{
+		PooledBuffer buffer = SlackMessageConverter.BUFFERS.get();
+		byte[] body;
+		try
+		{
+			Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+			SlackGson.toJson(object, writer);
+			writer.flush();
+			body = buffer.toByteArray();
+		}
+		catch (IOException | JsonParseException e)
+		{
+			throw new MessageConversionException("Failed to convert message to json: " + object, e);
+		}
+		finally
+		{
+			buffer.release();
+		}
+
+		messageProperties.setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+		messageProperties.setContentEncoding(StandardCharsets.UTF_8.name());
+		messageProperties.setContentLength(body.length);
+		return new Message(body, messageProperties);
+	}
+
+	/**
+	 * read message body as json String
+	 */
+	@Override
+	public Object fromMessage(Message message) throws MessageConversionException
+	{
+		byte[] body = message.getBody();
+		String contentType = message.getMessageProperties().getContentType();
+
+		// legacy format: json document as a json string literal
+		if (body.length > 0 && body[0] == '"' && contentType != null && contentType.contains("json"))
+		{
+			try
+			{
+				return SlackGson.fromJson(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8), String.class);
+			}
+			catch (JsonParseException e)
+			{
+				throw new MessageConversionException("Failed to read json string message", e);
+			}
+		}
+
+		return new String(body, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * per thread output buffer, reused between messages
+	 */
+	private static class PooledBuffer extends ByteArrayOutputStream
+	{
+		PooledBuffer()
+		{
+			super(SlackMessageConverter.INITIAL_BUFFER_SIZE);
+		}
+
+		void release()
+		{
+			if (this.buf.length > SlackMessageConverter.MAX_POOLED_BUFFER_SIZE)
+			{
+				this.buf = new byte[SlackMessageConverter.INITIAL_BUFFER_SIZE];
+			}
+
+			this.reset();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package talmal.contact.contactForm.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * threads of the blocking paths: message queue listener, queue sends and web socket writes.<br>
+ * by default they run on bounded pools of platform threads.<br>
+ * with services.threads.virtual on a JDK that supports virtual threads, they run on a virtual thread per task instead,
+ * so a blocked write or send holds no more than a carrier thread while it runs
+ */
+@Configuration
+@Slf4j
+public class ThreadingConfig
+{
+	private final ExecutorService virtualThreadExecutor;
+
+	public ThreadingConfig(@Value(value = "${services.threads.virtual:false}") boolean virtual)
+	{
+		this.virtualThreadExecutor = virtual ? ThreadingConfig.newVirtualThreadPerTaskExecutor() : null;
+		if (virtual && this.virtualThreadExecutor == null)
+		{
+			log.warn("Virtual threads are not supported by java {}, using platform threads", System.getProperty("java.version"));
+		}
+	}
+
+	/**
+	 * release resources
+	 */
+	@PreDestroy
+	void close()
+	{
+		if (this.virtualThreadExecutor != null)
+		{
+			this.virtualThreadExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * @return true if blocking paths run on virtual threads
+	 */
+	public boolean isVirtual()
+	{
+		return this.virtualThreadExecutor != null;
+	}
+
+	/**
+	 * @return executor starting a virtual thread per task, or null if virtual threads are not enabled
+	 */
+	public ExecutorService getVirtualThreadExecutor()
+	{
+		return this.virtualThreadExecutor;
+	}
+
+	/**
+	 * the project is built for java 17, so the virtual thread executor of newer JDKs is looked up by reflection
+	 * @return executor starting a virtual thread per task, or null if the JDK does not support virtual threads
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor()
+	{
+		ExecutorService result = null;
+		try
+		{
+			result = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			// thrown on java 17, or on java 19 and 20 without --enable-preview
+			log.debug("newVirtualThreadPerTaskExecutor is not available: {}", e.toString());
+		}
+
+		return result;
+	}
+}
@@ -1,47 +1,44 @@
 package talmal.contact.contactForm.config;
 
-import java.util.Map;
-
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.server.ServerHttpRequest;
-import org.springframework.http.server.ServerHttpResponse;
-import org.springframework.lang.Nullable;
-import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
-import org.springframework.web.socket.server.support.HttpSessionHandshakeInterceptor;
 
 import talmal.contact.contactForm.controllers.ContactFormController;
+import talmal.contact.contactForm.websocket.ChatIdHandshakeInterceptor;
+import talmal.contact.contactForm.websocket.CompressionHandshakeHandler;
 
 @Configuration
 @EnableWebSocket
+@ConditionalOnWebApplication(type = Type.SERVLET)
 public class WebSocketConfiguration implements WebSocketConfigurer
 {
+	@Value(value = "${services.query_key.chat_id}")
+	private String QUERY_KEY_CHAT_ID;
+
+	@Value(value = "${services.query_key.last_message_id:lastMessageId}")
+	private String QUERY_KEY_LAST_MESSAGE_ID;
+
+	@Value(value = "${services.query_key.since:since}")
+	private String QUERY_KEY_SINCE;
+
+	// permessage-deflate, negotiated only if the frontend requests it
+	@Value(value = "${services.websocket.compression.enabled:true}")
+	private boolean compressionEnabled;
+
 	@Autowired
 	private ContactFormController socketHandler;
 
 	public void registerWebSocketHandlers(WebSocketHandlerRegistry registry)
 	{
 		registry.addHandler(this.socketHandler, "/").setAllowedOrigins("*")
-			// initial Request/Handshake interceptor
-			.addInterceptors(new HttpSessionHandshakeInterceptor()
-			{
-				@Override
-				public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, @Nullable Exception ex)
-				{
-					super.afterHandshake(request, response, wsHandler, ex);
-				}
-
-				@Override
-				public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Map<String, Object> attributes) throws Exception
-				{
-					boolean b = super.beforeHandshake(request, response, wsHandler, attributes);
-					// && (request.getPrincipal()).isAuthenticated();
-					return b;
-				}
-
-			});
+			.setHandshakeHandler(new CompressionHandshakeHandler(this.compressionEnabled))
+			// initial Request/Handshake interceptor, binds chat id and resume cursor to the session
+			.addInterceptors(new ChatIdHandshakeInterceptor(this.QUERY_KEY_CHAT_ID, this.QUERY_KEY_LAST_MESSAGE_ID, this.QUERY_KEY_SINCE));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package talmal.contact.contactForm.controllers;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import lombok.extern.slf4j.Slf4j;
+import talmal.contact.contactForm.services.AdmissionControl;
+
+/**
+ * rate limit of each client address on the web socket handshake and the requests to slack, answered with 429 when exceeded.<br>
+ * while the instance drains on shutdown, all requests but the actuator endpoints are answered with 503.<br>
+ * ordered after the cors filter, so a rejected request still carries the cors headers
+ */
+@Slf4j
+@Component
+@Order(1)
+@ConditionalOnWebApplication(type = Type.SERVLET)
+public class AdmissionFilter extends OncePerRequestFilter
+{
+	// web socket handshake, start chat and send message
+	static final Set<String> LIMITED_PATHS = Set.of("/", "/contact/create", "/contact/reply");
+
+	// health and metrics stay available while draining
+	static final String ACTUATOR_PATH = "/actuator/";
+
+	private final AdmissionControl admissionControl;
+
+	public AdmissionFilter(AdmissionControl admissionControl)
+	{
+		this.admissionControl = admissionControl;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request)
+	{
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		return this.admissionControl.isDraining() ? path.startsWith(AdmissionFilter.ACTUATOR_PATH) : !AdmissionFilter.LIMITED_PATHS.contains(path);
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException
+	{
+		if (this.admissionControl.isDraining())
+		{
+			this.admissionControl.rejectDraining();
+			response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(this.admissionControl.getDrainRetryAfterMillis()) + 1));
+			response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+		}
+		else if (this.admissionControl.tryAcquireAddress(request.getRemoteAddr()))
+		{
+			filterChain.doFilter(request, response);
+		}
+		else
+		{
+			log.debug("Rejected request of {} to {}", request.getRemoteAddr(), request.getRequestURI());
+			response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(this.admissionControl.getRetryAfterSeconds()));
+			response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+		}
+	}
+}
@@ -1,254 +1,410 @@
-package talmal.contact.contactForm.controllers;
-
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-
-import javax.annotation.PreDestroy;
-
-import org.springframework.amqp.rabbit.annotation.RabbitListener;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
-import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.ResponseStatus;
-import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.socket.BinaryMessage;
-import org.springframework.web.socket.CloseStatus;
-import org.springframework.web.socket.TextMessage;
-import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
-
-import com.google.common.base.Splitter;
-
-import lombok.extern.slf4j.Slf4j;
-import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
-import talmal.contact.contactForm.config.MessagingConfig;
-import talmal.contact.contactForm.config.SlackGson;
-import talmal.contact.contactForm.models.ContactDetails;
-import talmal.contact.contactForm.models.context.ChatMessage;
-import talmal.contact.contactForm.services.ContactFormService;
-
-@Slf4j
-@RestController
-@RequestMapping(path = "/contact") // ,produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-public class ContactFormController extends TextWebSocketHandler
-{
-	@Value(value = "${services.query_key.chat_id}")
-	private String QUERY_KEY_CHAT_ID;
-
-	@Autowired
-	private ContactFormService contactFormService;
-
-	Map<String, WebSocketSession> webSocketConnections;
-
-	public ContactFormController()
-	{
-		this.webSocketConnections = new HashMap<String, WebSocketSession>();
-	}
-
-	/**
-	 * release resources
-	 */
-	@PreDestroy
-	void close()
-	{
-		this.webSocketConnections.values().forEach(session ->
-		{
-			try
-			{
-				session.close();
-			}
-			catch (IOException e)
-			{
-				log.error(e.getMessage(),e);
-			}
-		});
-	}
-
-	/**
-	 * accept frontend calls to verify backend readiness
-	 * 
-	 * @return true
-	 */
-	@GetMapping(path = "isReady")
-	public Mono<Boolean> isReady()
-	{
-		return Mono.just(true);
-	}
-
-	/**
-	 * accept frontend calls to start a new chat
-	 * 
-	 * @param contactDetails
-	 * @return
-	 */
-	@PostMapping(path = "/create", consumes = MediaType.APPLICATION_JSON_VALUE)
-	@ResponseStatus(HttpStatus.CREATED)
-	public Mono<ChatMessage> create(@RequestBody(required = true) ContactDetails contactDetails)
-	{
-		// http call to start chat
-		// return this.contactFormService.startChat(contactDetails);
-
-		// message queue to start chat
-		return this.contactFormService.queueStartChat(contactDetails);
-	}
-
-	/**
-	 * accept frontend calls to send a new message to chat
-	 * 
-	 * @param chatMessage
-	 * @return
-	 */
-	@PostMapping(path = "/reply", consumes = MediaType.APPLICATION_JSON_VALUE)
-	@ResponseStatus(HttpStatus.CREATED)
-	public Mono<ChatMessage> sendMessage(@RequestBody(required = true) ChatMessage chatMessage)
-	{
-		// http call to send new message
-		// return this.contactFormService.newMessage(chatMessage);
-
-		// message queue to send new message
-		return this.contactFormService.queueNewMessage(chatMessage);
-	}
-
-	/**
-	 * accept frontend calls to subscribe to existing chat
-	 * 
-	 * @param chatId
-	 * @return
-	 */
-	@GetMapping(path = "/follow", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-	public Flux<ChatMessage> follow(@RequestParam(name = "chatId", required = true) String chatId)
-	{
-		// http call to load existing messages
-		// return this.contactFormService.loadChat(chatId);
-
-		// message queue to load existing messages
-		return this.contactFormService.queueLoadChat(chatId);
-	}
-
-	/**
-	 * listen to messages coming from Slack to chat client
-	 * 
-	 * @param chatMessageJson
-	 */
-	@RabbitListener(queues = MessagingConfig.FROM_SLACK_NEW_MESSAGE_QUEUE)
-	public void consumeMessageQueue(String chatMessageJson)
-	{
-		// extract chatId from message
-		ChatMessage chatMessage = SlackGson.fromJson(chatMessageJson, ChatMessage.class);
-		if (chatMessage != null)
-		{
-			// find appropriate webSocket
-			WebSocketSession webSocketSession = this.webSocketConnections.get(chatMessage.getChatId());
-			if (webSocketSession != null)
-			{
-				try
-				{
-					// send message to appropriate web socket
-					webSocketSession.sendMessage(new TextMessage(chatMessageJson));
-				}
-				catch (IOException e)
-				{
-					log.error(e.getMessage(), e);
-				}
-			}
-			else
-			{
-				log.error("Received message for inactive chat: {}", chatMessageJson);
-			}
-		}
-	}
-
-	/**
-	 * handle messages from frontend, and return the response
-	 */
-	@Override
-	public void handleTextMessage(WebSocketSession session, TextMessage message) throws InterruptedException, IOException
-	{
-		// send message with queue and wait for response
-		this.contactFormService.queueNewMessage(new ChatMessage(message))
-		.subscribe(chatMessageResponse ->
-		{
-			try
-			{
-				// send response back to message frontend sender via web socket session
-				session.sendMessage(new TextMessage(SlackGson.toJson(chatMessageResponse)));
-			}
-			catch (IOException e)
-			{
-				log.error(e.getMessage(), e);
-			}
-		});
-	}
-
-	/**
-	 * receive the request to open websocket connection, open one, load existing
-	 * chat messages, and close unused existing connections
-	 */
-	@Override
-	public void afterConnectionEstablished(WebSocketSession session) throws Exception
-	{
-		// extract chat id from url query
-		String chatId = ContactFormController.getQueryValue(session.getUri().getQuery(), this.QUERY_KEY_CHAT_ID);
-
-		// add session to active session list
-		this.webSocketConnections.put(chatId, session);
-
-		// get all existing messages - with message queue
-		this.contactFormService.queueLoadChat(chatId).subscribe(chatMessage ->
-		{
-			// send existing messages to session
-			try
-			{
-				log.debug(chatMessage.toString());
-				session.sendMessage(new TextMessage(SlackGson.toJson(chatMessage)));
-			}
-			catch (IOException e)
-			{
-				log.error(e.getMessage(), e);
-			}
-		});
-	}
-
-	@Override
-	public void afterConnectionClosed(WebSocketSession session, CloseStatus status)
-	{
-		log.debug("afterConnectionClosed: {} - {}", session, status);
-
-		// remove closed web socket from memory
-		String chatId = ContactFormController.getQueryValue(session.getUri().getQuery(), this.QUERY_KEY_CHAT_ID);
-		this.webSocketConnections.remove(chatId);
-	}
-
-	@Override
-	protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message)
-	{
-		log.debug("handleBinaryMessage: {} - {}", session, message);
-	}
-
-	@Override
-	public void handleTransportError(WebSocketSession session, Throwable exception)
-	{
-		log.error("handleTransportError: {} - {}", session, exception);
-	}
-
-	/**
-	 * utility method to extract value from url query string
-	 * 
-	 * @param queryString
-	 * @param queryKey
-	 * @return expected string of target value, or null if not found
-	 */
-	private static String getQueryValue(String queryString, String queryKey)
-	{
-		Map<String, String> queryParameters = Splitter.on("&").withKeyValueSeparator("=").split(queryString);
-		return queryParameters.get(queryKey);
-	}
-}
+package talmal.contact.contactForm.controllers;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.SubProtocolCapable;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import talmal.contact.contactForm.config.MessagingConfig;
+import talmal.contact.contactForm.config.SlackGson;
+import talmal.contact.contactForm.models.ContactDetails;
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.MessageIdFlag;
+import talmal.contact.contactForm.models.context.ResumeCursor;
+import talmal.contact.contactForm.models.context.SenderType;
+import talmal.contact.contactForm.models.jsonElements.DecodeResult;
+import talmal.contact.contactForm.models.jsonElements.DecodeResult.DecodeError;
+import talmal.contact.contactForm.models.jsonElements.FrameDecoder;
+import talmal.contact.contactForm.services.AdmissionControl;
+import talmal.contact.contactForm.services.ChatHistoryCache;
+import talmal.contact.contactForm.services.ContactFormMetrics;
+import talmal.contact.contactForm.services.ContactFormService;
+import talmal.contact.contactForm.websocket.BinaryFrameCodec;
+import talmal.contact.contactForm.websocket.SessionHeartbeat;
+import talmal.contact.contactForm.websocket.WebSocketSessionRegistry;
+
+@Slf4j
+@RestController
+@RequestMapping(path = "/contact") // ,produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+public class ContactFormController extends TextWebSocketHandler implements SubProtocolCapable
+{
+	@Autowired
+	private ContactFormService contactFormService;
+
+	@Autowired
+	private MessagingConfig messagingConfig;
+
+	@Autowired
+	WebSocketSessionRegistry webSocketConnections;
+
+	@Autowired
+	ContactFormMetrics contactFormMetrics;
+
+	@Autowired
+	ChatHistoryCache chatHistoryCache;
+
+	@Autowired
+	AdmissionControl admissionControl;
+
+	@Autowired
+	SessionHeartbeat sessionHeartbeat;
+
+	// sessions of the reactive stack, only when running with spring.main.web-application-type=reactive
+	@Autowired(required = false)
+	ReactiveContactFormHandler reactiveHandler;
+
+	/**
+	 * accept frontend calls to verify backend readiness
+	 * 
+	 * @return true
+	 */
+	@GetMapping(path = "isReady")
+	public Mono<Boolean> isReady()
+	{
+		return Mono.just(true);
+	}
+
+	/**
+	 * accept frontend calls to start a new chat
+	 * 
+	 * @param contactDetails
+	 * @return
+	 */
+	@PostMapping(path = "/create", consumes = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseStatus(HttpStatus.CREATED)
+	public Mono<ChatMessage> create(@RequestBody(required = true) ContactDetails contactDetails)
+	{
+		// message queue or http call to start chat, by services.transport.create
+		return this.contactFormService.dispatchStartChat(contactDetails);
+	}
+
+	/**
+	 * accept frontend calls to send a new message to chat
+	 * 
+	 * @param chatMessage
+	 * @return
+	 */
+	@PostMapping(path = "/reply", consumes = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseStatus(HttpStatus.CREATED)
+	public Mono<ChatMessage> sendMessage(@RequestBody(required = true) ChatMessage chatMessage)
+	{
+		if (!this.admissionControl.tryAcquireChat(chatMessage.getChatId()))
+		{
+			return Mono.error(new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many messages in chat"));
+		}
+
+		// message queue or http call to send new message, by services.transport.send
+		return this.contactFormService.dispatchNewMessage(chatMessage);
+	}
+
+	/**
+	 * accept frontend calls to subscribe to existing chat
+	 * 
+	 * @param chatId
+	 * @return
+	 */
+	@GetMapping(path = "/follow", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Flux<ChatMessage> follow(@RequestParam(name = "chatId", required = true) String chatId)
+	{
+		// message queue or http call to load existing messages, by services.transport.open
+		return this.contactFormService.dispatchLoadChat(chatId);
+	}
+
+	/**
+	 * listen to messages coming from Slack to chat client.<br>
+	 * concurrency is the number of consumers, or min-max to scale with load. 
+	 * with more than one consumer, messages of the same chat may be sent to the frontend out of order
+	 * 
+	 * @param chatMessageJson
+	 */
+	@RabbitListener(queues = "#{@messagingConfig.getFromSlackQueueName()}", concurrency = "${services.queue.listener.concurrency:1}")
+	public void consumeMessageQueue(String chatMessageJson)
+	{
+		long startTime = System.nanoTime();
+
+		// extract chatId from message
+		ChatMessage chatMessage = SlackGson.fromJson(chatMessageJson, ChatMessage.class);
+		if (chatMessage != null)
+		{
+			// find appropriate webSockets, one per open tab of the chat
+			Collection<WebSocketSession> webSocketSessions = this.webSocketConnections.getSessions(chatMessage.getChatId());
+			int reactiveSessionCount = this.reactiveHandler != null ? this.reactiveHandler.publish(chatMessage, chatMessageJson) : 0;
+			boolean delivered = !webSocketSessions.isEmpty() || reactiveSessionCount > 0;
+			this.chatHistoryCache.append(chatMessage);
+			this.contactFormMetrics.fanOut(delivered);
+			if (delivered)
+			{
+				// each format is encoded once, and shared by all sessions that use it
+				TextMessage textMessage = new TextMessage(chatMessageJson);
+				byte[] binaryFrame = null;
+				for (WebSocketSession webSocketSession : webSocketSessions)
+				{
+					try
+					{
+						// send message to appropriate web socket
+						if (ContactFormController.isBinary(webSocketSession))
+						{
+							binaryFrame = binaryFrame != null ? binaryFrame : BinaryFrameCodec.encode(chatMessage);
+							webSocketSession.sendMessage(new BinaryMessage(binaryFrame));
+						}
+						else
+						{
+							webSocketSession.sendMessage(textMessage);
+						}
+					}
+					catch (IOException e)
+					{
+						log.error(e.getMessage(), e);
+					}
+				}
+
+				this.contactFormMetrics.delivered(chatMessage.getDate());
+			}
+			else if (this.messagingConfig.isBroadcast())
+			{
+				// in broadcast mode the chat is usually held by another instance
+				log.debug("Received message for chat of another instance: {}", chatMessage.getChatId());
+			}
+			else
+			{
+				log.error("Received message for inactive chat: {}", chatMessageJson);
+			}
+		}
+
+		this.contactFormMetrics.getFanOutDuration().record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * handle messages from frontend, and return the response
+	 */
+	@Override
+	public void handleTextMessage(WebSocketSession session, TextMessage message) throws InterruptedException, IOException
+	{
+		this.sessionHeartbeat.touch(session);
+		String chatId = (String) session.getAttributes().get(WebSocketSessionRegistry.ATTRIBUTE_CHAT_ID);
+		this.handleChatMessage(session, ContactFormController.bindChatId(FrameDecoder.decodeChatMessage(message.getPayload()), chatId), message.getPayload());
+	}
+
+	/**
+	 * handle binary frames from frontend of sessions that negotiated the binary subprotocol, and return the response
+	 */
+	@Override
+	protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message)
+	{
+		this.sessionHeartbeat.touch(session);
+		String chatId = (String) session.getAttributes().get(WebSocketSessionRegistry.ATTRIBUTE_CHAT_ID);
+		try
+		{
+			this.handleChatMessage(session, BinaryFrameCodec.decodeChatMessage(message.getPayload(), chatId), message);
+		}
+		catch (IOException e)
+		{
+			log.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * send a decoded frame from frontend to slack, and write the response in the format of the session
+	 * @param session
+	 * @param decodeResult
+	 * @param payload - frame as received, for logging
+	 * @throws IOException
+	 */
+	private void handleChatMessage(WebSocketSession session, DecodeResult<ChatMessage> decodeResult, Object payload) throws IOException
+	{
+		WebSocketSession outboundSession = this.webSocketConnections.getOutboundSession(session);
+
+		// invalid frames are answered with an INVALID message instead of closing the session
+		if (!decodeResult.isValid())
+		{
+			log.error("Invalid chat message {}: {} - {}", decodeResult.getError(), decodeResult.getDetail(), payload);
+			outboundSession.sendMessage(ContactFormController.toWebSocketMessage(outboundSession, 
+				ContactFormController.invalidMessage((String) session.getAttributes().get(WebSocketSessionRegistry.ATTRIBUTE_CHAT_ID), decodeResult)));
+			return;
+		}
+
+		// a client over its rate is disconnected, it may reconnect once its bucket refills, the chat is the one bound at handshake
+		InetSocketAddress remoteAddress = session.getRemoteAddress();
+		if (!this.admissionControl.tryAcquireChat((String) session.getAttributes().get(WebSocketSessionRegistry.ATTRIBUTE_CHAT_ID)) 
+			|| !this.admissionControl.tryAcquireAddress(remoteAddress != null ? remoteAddress.getHostString() : null))
+		{
+			log.debug("Closing session over its rate: {}", session);
+			outboundSession.close(CloseStatus.POLICY_VIOLATION);
+			return;
+		}
+
+		// send message with queue and wait for response
+		this.contactFormService.dispatchNewMessage(decodeResult.getValue())
+		.subscribe(chatMessageResponse ->
+		{
+			try
+			{
+				// send response back to message frontend sender via web socket session
+				outboundSession.sendMessage(ContactFormController.toWebSocketMessage(outboundSession, chatMessageResponse));
+			}
+			catch (IOException e)
+			{
+				log.error(e.getMessage(), e);
+			}
+		}, 
+		throwable -> 
+		{
+			try
+			{
+				// shed load by closing the session, the frontend may reconnect later
+				log.error(throwable.getMessage());
+				outboundSession.close(throwable instanceof ResponseStatusException ? CloseStatus.SERVICE_OVERLOAD : CloseStatus.SERVER_ERROR);
+			}
+			catch (IOException e)
+			{
+				log.error(e.getMessage(), e);
+			}
+		});
+	}
+
+	/**
+	 * receive the request to open websocket connection, open one, load existing
+	 * chat messages, or only the missed ones on a reconnect, and close unused existing connections
+	 */
+	@Override
+	public void afterConnectionEstablished(WebSocketSession session) throws Exception
+	{
+		// chat id is parsed and validated from url query at handshake
+		String chatId = (String) session.getAttributes().get(WebSocketSessionRegistry.ATTRIBUTE_CHAT_ID);
+		ResumeCursor resumeCursor = (ResumeCursor) session.getAttributes().get(WebSocketSessionRegistry.ATTRIBUTE_RESUME_CURSOR);
+
+		// add session to active session list
+		WebSocketSession outboundSession = this.webSocketConnections.add(chatId, session);
+		this.sessionHeartbeat.register(session, outboundSession);
+
+		// get existing messages, only those after the cursor on a reconnect
+		this.contactFormService.dispatchLoadChat(chatId, resumeCursor).subscribe(chatMessage ->
+		{
+			// send existing messages to session
+			try
+			{
+				log.debug(chatMessage.toString());
+				outboundSession.sendMessage(ContactFormController.toWebSocketMessage(outboundSession, chatMessage));
+			}
+			catch (IOException e)
+			{
+				log.error(e.getMessage(), e);
+			}
+		}, 
+		throwable -> log.error(throwable.getMessage(), throwable));
+	}
+
+	@Override
+	public void afterConnectionClosed(WebSocketSession session, CloseStatus status)
+	{
+		log.debug("afterConnectionClosed: {} - {}", session, status);
+
+		// remove closed web socket from memory, other tabs of the same chat stay open
+		this.sessionHeartbeat.cancel(session);
+		this.webSocketConnections.remove(session);
+	}
+
+	/**
+	 * pong of a heartbeat ping, the frontend is still connected
+	 */
+	@Override
+	protected void handlePongMessage(WebSocketSession session, PongMessage message)
+	{
+		this.sessionHeartbeat.touch(session);
+	}
+
+	@Override
+	public void handleTransportError(WebSocketSession session, Throwable exception)
+	{
+		log.error("handleTransportError: {} - {}", session, exception);
+	}
+
+	/**
+	 * @return subprotocols the frontend may negotiate at handshake, without one the session uses json text frames
+	 */
+	@Override
+	public List<String> getSubProtocols()
+	{
+		return List.of(BinaryFrameCodec.SUBPROTOCOL);
+	}
+
+	/**
+	 * @param session
+	 * @return true if the session negotiated the binary subprotocol
+	 */
+	static boolean isBinary(WebSocketSession session)
+	{
+		return BinaryFrameCodec.SUBPROTOCOL.equals(session.getAcceptedProtocol());
+	}
+
+	/**
+	 * @param session
+	 * @param chatMessage
+	 * @return frame of the chat message in the format of the session
+	 */
+	static WebSocketMessage<?> toWebSocketMessage(WebSocketSession session, ChatMessage chatMessage)
+	{
+		return ContactFormController.isBinary(session) 
+			? new BinaryMessage(BinaryFrameCodec.encode(chatMessage)) 
+			: new TextMessage(SlackGson.toJson(chatMessage));
+	}
+
+	/**
+	 * a session may only post to the chat bound to it at handshake
+	 * @param decodeResult - decoded text frame, its chat id is set by the frontend
+	 * @param chatId - chat id bound to the session
+	 * @return decodeResult, or CHAT_ID_MISMATCH if the frame is of another chat
+	 */
+	static DecodeResult<ChatMessage> bindChatId(DecodeResult<ChatMessage> decodeResult, String chatId)
+	{
+		if (decodeResult.isValid() && (chatId == null || !chatId.equals(decodeResult.getValue().getChatId())))
+		{
+			return DecodeResult.invalid(DecodeError.CHAT_ID_MISMATCH, "chatId");
+		}
+
+		return decodeResult;
+	}
+
+	/**
+	 * @param chatId
+	 * @param decodeResult - result of a frame that could not be decoded
+	 * @return INVALID message to answer an invalid frame, holding the decode error
+	 */
+	static ChatMessage invalidMessage(String chatId, DecodeResult<?> decodeResult)
+	{
+		return new ChatMessage(
+			chatId,
+			MessageIdFlag.INVALID.name(),
+			null,
+			decodeResult.getError() + ": " + decodeResult.getDetail(),
+			Instant.now(),
+			SenderType.USER);
+	}
+
+}
@@ -0,0 +1,65 @@
+package talmal.contact.contactForm.controllers;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import talmal.contact.contactForm.services.AdmissionControl;
+
+/**
+ * same rate limit and drain as AdmissionFilter for the reactive stack, when running with spring.main.web-application-type=reactive
+ */
+@Slf4j
+@Component
+@Order(1)
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class ReactiveAdmissionFilter implements WebFilter
+{
+	private final AdmissionControl admissionControl;
+
+	public ReactiveAdmissionFilter(AdmissionControl admissionControl)
+	{
+		this.admissionControl = admissionControl;
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain)
+	{
+		String path = exchange.getRequest().getPath().pathWithinApplication().value();
+		if (this.admissionControl.isDraining() && !path.startsWith(AdmissionFilter.ACTUATOR_PATH))
+		{
+			this.admissionControl.rejectDraining();
+			exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+			exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(this.admissionControl.getDrainRetryAfterMillis()) + 1));
+			return exchange.getResponse().setComplete();
+		}
+
+		if (!AdmissionFilter.LIMITED_PATHS.contains(path))
+		{
+			return chain.filter(exchange);
+		}
+
+		InetSocketAddress remoteAddress = exchange.getRequest().getRemoteAddress();
+		String address = remoteAddress != null ? remoteAddress.getHostString() : null;
+		if (this.admissionControl.tryAcquireAddress(address))
+		{
+			return chain.filter(exchange);
+		}
+
+		log.debug("Rejected request of {} to {}", address, exchange.getRequest().getPath());
+		exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+		exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(this.admissionControl.getRetryAfterSeconds()));
+		return exchange.getResponse().setComplete();
+	}
+}
@@ -0,0 +1,285 @@
+package talmal.contact.contactForm.controllers;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication.Type;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.server.ResponseStatusException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+import talmal.contact.contactForm.config.SlackGson;
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.ResumeCursor;
+import talmal.contact.contactForm.models.jsonElements.DecodeResult;
+import talmal.contact.contactForm.models.jsonElements.FrameDecoder;
+import talmal.contact.contactForm.services.AdmissionControl;
+import talmal.contact.contactForm.services.ContactFormService;
+import talmal.contact.contactForm.websocket.BinaryFrameCodec;
+import talmal.contact.contactForm.websocket.HandshakeQuery;
+
+/**
+ * web socket handler of the reactive stack, used when running with spring.main.web-application-type=reactive.<br>
+ * each session writes a single outbound stream: the chat history followed by a sink of replies and messages from slack,
+ * so writes follow the demand of the connection instead of blocking a thread per session.<br>
+ * sessions that negotiated the binary subprotocol get binary frames, other sessions get json text frames
+ */
+@Slf4j
+@Component
+@ConditionalOnWebApplication(type = Type.REACTIVE)
+public class ReactiveContactFormHandler implements WebSocketHandler
+{
+	@Value(value = "${services.query_key.chat_id}")
+	private String QUERY_KEY_CHAT_ID;
+
+	private final ContactFormService contactFormService;
+	private final AdmissionControl admissionControl;
+	private final int bufferSize;
+	private final Counter droppedMessages;
+
+	// outbound sinks of open sessions by chat id and session id
+	private final Map<String, Map<String, Outbound>> sinksByChatId;
+
+	public ReactiveContactFormHandler(ContactFormService contactFormService, AdmissionControl admissionControl,
+		@Value(value = "${services.websocket.reactive.bufferSize:256}") int bufferSize,
+		MeterRegistry meterRegistry)
+	{
+		this.contactFormService = contactFormService;
+		this.admissionControl = admissionControl;
+		this.bufferSize = bufferSize;
+		this.droppedMessages = meterRegistry.counter("websocket.outbound.dropped");
+		this.sinksByChatId = new ConcurrentHashMap<String, Map<String, Outbound>>();
+	}
+
+	/**
+	 * @return subprotocols the frontend may negotiate at handshake, without one the session uses json text frames
+	 */
+	@Override
+	public List<String> getSubProtocols()
+	{
+		return List.of(BinaryFrameCodec.SUBPROTOCOL);
+	}
+
+	@Override
+	public Mono<Void> handle(WebSocketSession session)
+	{
+		// extract chat id from url query, when the handshake did not bind it, and send the whole history
+		String chatId = HandshakeQuery.getChatId(session.getHandshakeInfo().getUri().getRawQuery(), this.QUERY_KEY_CHAT_ID);
+		if (chatId == null)
+		{
+			return session.close(CloseStatus.BAD_DATA);
+		}
+
+		return this.handle(session, chatId, null);
+	}
+
+	/**
+	 * @param chatId - chat id parsed and validated at handshake
+	 * @param resumeCursor - last message seen by a reconnecting frontend, or null to send the whole history
+	 * @return handler of sessions of the chat
+	 */
+	public WebSocketHandler withChatId(String chatId, ResumeCursor resumeCursor)
+	{
+		return new WebSocketHandler()
+		{
+			@Override
+			public List<String> getSubProtocols()
+			{
+				return ReactiveContactFormHandler.this.getSubProtocols();
+			}
+
+			@Override
+			public Mono<Void> handle(WebSocketSession session)
+			{
+				return ReactiveContactFormHandler.this.handle(session, chatId, resumeCursor);
+			}
+		};
+	}
+
+	private Mono<Void> handle(WebSocketSession session, String chatId, ResumeCursor resumeCursor)
+	{
+		// messages written before the session subscribes to the sink, while the history loads, are buffered
+		Outbound outbound = new Outbound(session, BinaryFrameCodec.SUBPROTOCOL.equals(session.getHandshakeInfo().getSubProtocol()), 
+			Sinks.many().unicast().onBackpressureBuffer(Queues.<byte[]>get(this.bufferSize).get()));
+		this.sinksByChatId.compute(chatId, (key, sinks) ->
+		{
+			Map<String, Outbound> result = sinks != null ? sinks : new ConcurrentHashMap<String, Outbound>();
+			result.put(session.getId(), outbound);
+			return result;
+		});
+
+		// existing messages first, only those after the cursor on a reconnect, then replies and messages from slack
+		WebSocketMessage.Type frameType = outbound.binary ? WebSocketMessage.Type.BINARY : WebSocketMessage.Type.TEXT;
+		Flux<WebSocketMessage> output = Flux.concat(
+				this.contactFormService.dispatchLoadChat(chatId, resumeCursor).map(chatMessage -> ReactiveContactFormHandler.encode(outbound.binary, chatMessage)), 
+				outbound.sink.asFlux())
+			.map(frame -> new WebSocketMessage(frameType, session.bufferFactory().wrap(frame)));
+
+		Mono<Void> input = session.receive()
+			.flatMap(message -> this.handleMessage(session, chatId, message))
+			.doOnNext(response -> this.emit(outbound, ReactiveContactFormHandler.encode(outbound.binary, response)))
+			.then();
+
+		return session.send(output).and(input)
+			.doFinally(signalType ->
+			{
+				// remove closed web socket from memory, other tabs of the same chat stay open
+				this.sinksByChatId.computeIfPresent(chatId, (key, sinks) ->
+				{
+					sinks.remove(session.getId());
+					return sinks.isEmpty() ? null : sinks;
+				});
+				outbound.sink.tryEmitComplete();
+			});
+	}
+
+	/**
+	 * write a message from slack to all reactive sessions of its chat, each format is encoded once for all sessions
+	 * @param chatMessage
+	 * @param chatMessageJson - json of the chat message as received from slack
+	 * @return number of sessions of the chat
+	 */
+	public int publish(ChatMessage chatMessage, String chatMessageJson)
+	{
+		Collection<Outbound> sinks = this.getSinks(chatMessage.getChatId());
+		byte[] textFrame = null;
+		byte[] binaryFrame = null;
+		for (Outbound outbound : sinks)
+		{
+			if (outbound.binary)
+			{
+				binaryFrame = binaryFrame != null ? binaryFrame : BinaryFrameCodec.encode(chatMessage);
+				this.emit(outbound, binaryFrame);
+			}
+			else
+			{
+				textFrame = textFrame != null ? textFrame : chatMessageJson.getBytes(StandardCharsets.UTF_8);
+				this.emit(outbound, textFrame);
+			}
+		}
+
+		return sinks.size();
+	}
+
+	/**
+	 * close all sessions at once, on shutdown, a session failing to close does not hold the others
+	 * @param closeStatus - status of each session, may differ between sessions
+	 * @return completes when all sessions are closed
+	 */
+	public Mono<Void> closeAll(Supplier<CloseStatus> closeStatus)
+	{
+		return Flux.fromStream(this.sinksByChatId.values().stream().flatMap(sinks -> sinks.values().stream()))
+			.flatMap(outbound -> Mono.defer(() -> outbound.session.close(closeStatus.get()))
+				.onErrorResume(throwable -> 
+				{
+					log.error(throwable.getMessage(), throwable);
+					return Mono.empty();
+				}))
+			.then();
+	}
+
+	/**
+	 * decode a text or binary frame from frontend and send it to slack, invalid frames are answered with an INVALID message,
+	 * as are text frames of another chat than the one of the session.<br>
+	 * a client over its rate is disconnected, and sessions are closed to shed load when too many requests are in progress
+	 * @param session
+	 * @param chatId
+	 * @param message
+	 * @return response to the frontend
+	 */
+	private Mono<ChatMessage> handleMessage(WebSocketSession session, String chatId, WebSocketMessage message)
+	{
+		DecodeResult<ChatMessage> decodeResult;
+		switch (message.getType())
+		{
+			case TEXT:
+				decodeResult = ContactFormController.bindChatId(FrameDecoder.decodeChatMessage(message.getPayloadAsText()), chatId);
+				break;
+			case BINARY:
+				decodeResult = BinaryFrameCodec.decodeChatMessage(message.getPayload().asByteBuffer(), chatId);
+				break;
+			default:
+				return Mono.empty();
+		}
+
+		if (!decodeResult.isValid())
+		{
+			log.error("Invalid chat message {}: {} - {}", decodeResult.getError(), decodeResult.getDetail(), message);
+			return Mono.just(ContactFormController.invalidMessage(chatId, decodeResult));
+		}
+
+		InetSocketAddress remoteAddress = session.getHandshakeInfo().getRemoteAddress();
+		if (!this.admissionControl.tryAcquireChat(chatId) 
+			|| !this.admissionControl.tryAcquireAddress(remoteAddress != null ? remoteAddress.getHostString() : null))
+		{
+			log.debug("Closing session over its rate: {}", session);
+			return session.close(CloseStatus.POLICY_VIOLATION).then(Mono.empty());
+		}
+
+		return this.contactFormService.dispatchNewMessage(decodeResult.getValue())
+			.onErrorResume(ResponseStatusException.class, e -> session.close(CloseStatus.SERVICE_OVERLOAD).then(Mono.empty()));
+	}
+
+	/**
+	 * @param binary - true for a session that negotiated the binary subprotocol
+	 * @param chatMessage
+	 * @return frame payload of the chat message, utf-8 json for text sessions
+	 */
+	private static byte[] encode(boolean binary, ChatMessage chatMessage)
+	{
+		return binary ? BinaryFrameCodec.encode(chatMessage) : SlackGson.toJson(chatMessage).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void emit(Outbound outbound, byte[] frame)
+	{
+		// replies and messages from slack are written from different threads, retry while another thread is emitting
+		Sinks.EmitResult emitResult = outbound.sink.tryEmitNext(frame);
+		while (emitResult == Sinks.EmitResult.FAIL_NON_SERIALIZED)
+		{
+			Thread.onSpinWait();
+			emitResult = outbound.sink.tryEmitNext(frame);
+		}
+
+		if (emitResult == Sinks.EmitResult.FAIL_OVERFLOW)
+		{
+			this.droppedMessages.increment();
+			log.error("Dropped message of {} bytes for a slow web socket session", frame.length);
+		}
+	}
+
+	private Collection<Outbound> getSinks(String chatId)
+	{
+		Map<String, Outbound> sinks = chatId != null ? this.sinksByChatId.get(chatId) : null;
+		return sinks != null ? sinks.values() : Collections.emptyList();
+	}
+
+	/**
+	 * outbound sink of a session, with the frame format it negotiated
+	 */
+	@AllArgsConstructor
+	private static class Outbound
+	{
+		private final WebSocketSession session;
+		private final boolean binary;
+		private final Sinks.Many<byte[]> sink;
+	}
+}
@@ -2,5 +2,5 @@ package talmal.contact.contactForm.models.context;
 
 public enum MessageIdFlag
 {
-	INVALID, COMMUNICATION_ERROR
+	INVALID, COMMUNICATION_ERROR, QUEUED
 }
@@ -0,0 +1,47 @@
+package talmal.contact.contactForm.models.context;
+
+import java.time.Instant;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * last message seen by a reconnecting frontend, given by its message id, its date, or both.<br>
+ * only the messages after the cursor are sent again
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class ResumeCursor
+{
+	private String lastMessageId;
+	private Instant since;
+
+	/**
+	 * @param history - messages of the chat, sorted by date
+	 * @return messages after the cursor, or the whole history if the cursor is not found in it
+	 */
+	public List<ChatMessage> after(List<ChatMessage> history)
+	{
+		// a reconnecting frontend missed few messages, scan back from the newest one
+		for (int index = history.size() - 1; index >= 0; index--)
+		{
+			ChatMessage chatMessage = history.get(index);
+			if (this.lastMessageId != null && this.lastMessageId.equals(chatMessage.getMessageId()))
+			{
+				return history.subList(index + 1, history.size());
+			}
+
+			// with a message id, messages of the same date are kept until the message itself is found
+			if (this.since != null && chatMessage.getDate() != null
+				&& (this.lastMessageId != null ? chatMessage.getDate().isBefore(this.since) : !chatMessage.getDate().isAfter(this.since)))
+			{
+				return history.subList(index + 1, history.size());
+			}
+		}
+
+		return history;
+	}
+}
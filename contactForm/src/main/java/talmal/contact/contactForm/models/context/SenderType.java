@@ -1,6 +1,6 @@
-package talmal.contact.contactForm.models.context;
-
-public enum SenderType
-{
-	OWNER,ROBOT,USER;
-}
+package talmal.contact.contactForm.models.context;
+
+public enum SenderType
+{
+	OWNER,ROBOT,USER;
+}
@@ -0,0 +1,40 @@
+package talmal.contact.contactForm.models.jsonElements;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * result of decoding an inbound frame: the decoded value, or the reason it is invalid
+ * @param <T> - type of decoded value
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@Getter
+@ToString
+public class DecodeResult<T>
+{
+	public enum DecodeError
+	{
+		MALFORMED_JSON, MALFORMED_FRAME, MISSING_FIELD, INVALID_DATE, INVALID_SENDER_TYPE, CHAT_ID_MISMATCH;
+	}
+
+	private final T value;
+	private final DecodeError error;
+	private final String detail;
+
+	public static <T> DecodeResult<T> valid(T value)
+	{
+		return new DecodeResult<T>(value, null, null);
+	}
+
+	public static <T> DecodeResult<T> invalid(DecodeError error, String detail)
+	{
+		return new DecodeResult<T>(null, error, detail);
+	}
+
+	public boolean isValid()
+	{
+		return this.error == null;
+	}
+}
@@ -0,0 +1,631 @@
+package talmal.contact.contactForm.models.jsonElements;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.SenderType;
+import talmal.contact.contactForm.models.jsonElements.DecodeResult.DecodeError;
+
+/**
+ * streaming decoder of inbound web socket frames.<br>
+ * reads the flat json object of a frame straight into the model, without an intermediate map or reflection,
+ * and reports invalid input as a DecodeResult instead of throwing.<br>
+ * dates are accepted as epoch seconds (number or numeric string, the format of InstantSerializer) or as ISO-8601 strings
+ */
+public class FrameDecoder
+{
+	private static final SenderType[] SENDER_TYPES = SenderType.values();
+
+	private static final int FIELD_UNKNOWN = 0;
+	private static final int FIELD_CHAT_ID = 1;
+	private static final int FIELD_MESSAGE_ID = 2;
+	private static final int FIELD_NAME = 3;
+	private static final int FIELD_MESSAGE = 4;
+	private static final int FIELD_DATE = 5;
+	private static final int FIELD_SENDER_TYPE = 6;
+
+	private final String json;
+	private int position;
+	private DecodeError error;
+	private String errorDetail;
+
+	private FrameDecoder(String json)
+	{
+		this.json = json;
+	}
+
+	/**
+	 * @param json - web socket frame payload
+	 * @return decoded chat message, or error if the frame is not a valid chat message
+	 */
+	public static DecodeResult<ChatMessage> decodeChatMessage(String json)
+	{
+		FrameDecoder decoder = new FrameDecoder(json);
+		ChatMessage chatMessage = new ChatMessage();
+		if (decoder.beginObject())
+		{
+			do
+			{
+				int field = decoder.nextField();
+				switch (field)
+				{
+					case FIELD_CHAT_ID:
+						chatMessage.setChatId(decoder.nextString());
+						break;
+					case FIELD_MESSAGE_ID:
+						chatMessage.setMessageId(decoder.nextString());
+						break;
+					case FIELD_NAME:
+						chatMessage.setName(decoder.nextString());
+						break;
+					case FIELD_MESSAGE:
+						chatMessage.setMessage(decoder.nextString());
+						break;
+					case FIELD_DATE:
+						chatMessage.setDate(decoder.nextDate());
+						break;
+					case FIELD_SENDER_TYPE:
+						chatMessage.setSenderType(decoder.nextSenderType());
+						break;
+					default:
+						decoder.skipValue();
+						break;
+				}
+			}
+			while (decoder.hasNextField());
+		}
+
+		if (decoder.endDocument())
+		{
+			if (chatMessage.getDate() == null)
+			{
+				decoder.fail(DecodeError.MISSING_FIELD, "date");
+			}
+			else if (chatMessage.getSenderType() == null)
+			{
+				decoder.fail(DecodeError.MISSING_FIELD, "senderType");
+			}
+		}
+
+		return decoder.error == null ? DecodeResult.valid(chatMessage) : DecodeResult.invalid(decoder.error, decoder.errorDetail);
+	}
+
+	/**
+	 * @return true if an object with at least one field starts here
+	 */
+	private boolean beginObject()
+	{
+		if (!this.consume('{'))
+		{
+			return this.fail(DecodeError.MALFORMED_JSON, "expected '{' at " + this.position);
+		}
+
+		this.skipWhitespace();
+		if (this.position < this.json.length() && this.json.charAt(this.position) == '}')
+		{
+			this.position++;
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * read the name of the next field and the ':' after it
+	 * @return field id, FIELD_UNKNOWN for names this decoder does not bind
+	 */
+	private int nextField()
+	{
+		if (!this.consume('"'))
+		{
+			this.fail(DecodeError.MALFORMED_JSON, "expected field name at " + this.position);
+			return FrameDecoder.FIELD_UNKNOWN;
+		}
+
+		int start = this.position;
+		int end = start;
+		while (end < this.json.length() && this.json.charAt(end) != '"' && this.json.charAt(end) != '\\')
+		{
+			end++;
+		}
+
+		int field = FrameDecoder.FIELD_UNKNOWN;
+		if (end < this.json.length() && this.json.charAt(end) == '"')
+		{
+			field = this.fieldOf(start, end - start);
+			this.position = end + 1;
+		}
+		else
+		{
+			// names with escapes are not bound, their value is skipped
+			this.nextEscapedString(start, end);
+		}
+
+		if (!this.consume(':'))
+		{
+			this.fail(DecodeError.MALFORMED_JSON, "expected ':' at " + this.position);
+			return FrameDecoder.FIELD_UNKNOWN;
+		}
+
+		return field;
+	}
+
+	/**
+	 * @return true if another field follows, false at the end of the object or on error
+	 */
+	private boolean hasNextField()
+	{
+		if (this.error != null)
+		{
+			return false;
+		}
+
+		this.skipWhitespace();
+		if (this.position < this.json.length())
+		{
+			char c = this.json.charAt(this.position++);
+			if (c == ',')
+			{
+				this.skipWhitespace();
+				return true;
+			}
+			else if (c == '}')
+			{
+				return false;
+			}
+		}
+
+		return this.fail(DecodeError.MALFORMED_JSON, "expected ',' or '}' at " + this.position);
+	}
+
+	/**
+	 * @return true if nothing but whitespace follows and no error was found
+	 */
+	private boolean endDocument()
+	{
+		if (this.error != null)
+		{
+			return false;
+		}
+
+		this.skipWhitespace();
+		return this.position == this.json.length() || this.fail(DecodeError.MALFORMED_JSON, "unexpected content at " + this.position);
+	}
+
+	private int fieldOf(int start, int length)
+	{
+		if (this.nameEquals(start, length, "chatId"))
+		{
+			return FrameDecoder.FIELD_CHAT_ID;
+		}
+		else if (this.nameEquals(start, length, "messageId"))
+		{
+			return FrameDecoder.FIELD_MESSAGE_ID;
+		}
+		else if (this.nameEquals(start, length, "name"))
+		{
+			return FrameDecoder.FIELD_NAME;
+		}
+		else if (this.nameEquals(start, length, "message"))
+		{
+			return FrameDecoder.FIELD_MESSAGE;
+		}
+		else if (this.nameEquals(start, length, "date"))
+		{
+			return FrameDecoder.FIELD_DATE;
+		}
+		else if (this.nameEquals(start, length, "senderType"))
+		{
+			return FrameDecoder.FIELD_SENDER_TYPE;
+		}
+
+		return FrameDecoder.FIELD_UNKNOWN;
+	}
+
+	private boolean nameEquals(int start, int length, String name)
+	{
+		return length == name.length() && this.json.regionMatches(start, name, 0, length);
+	}
+
+	/**
+	 * @return string value, null for json null or on error
+	 */
+	private String nextString()
+	{
+		if (this.error != null || this.consumeNull())
+		{
+			return null;
+		}
+
+		if (!this.consume('"'))
+		{
+			this.fail(DecodeError.MALFORMED_JSON, "expected string at " + this.position);
+			return null;
+		}
+
+		// fast path, no escapes: the value is a plain substring of the frame
+		int start = this.position;
+		int end = start;
+		while (end < this.json.length())
+		{
+			char c = this.json.charAt(end);
+			if (c == '"')
+			{
+				this.position = end + 1;
+				return this.json.substring(start, end);
+			}
+			else if (c == '\\')
+			{
+				break;
+			}
+
+			end++;
+		}
+
+		return this.nextEscapedString(start, end);
+	}
+
+	private String nextEscapedString(int start, int escapeStart)
+	{
+		StringBuilder value = new StringBuilder(escapeStart - start + 16).append(this.json, start, escapeStart);
+		int index = escapeStart;
+		while (index < this.json.length())
+		{
+			char c = this.json.charAt(index++);
+			if (c == '"')
+			{
+				this.position = index;
+				return value.toString();
+			}
+			else if (c != '\\')
+			{
+				value.append(c);
+				continue;
+			}
+			else if (index >= this.json.length())
+			{
+				break;
+			}
+
+			char escaped = this.json.charAt(index++);
+			switch (escaped)
+			{
+				case '"':
+				case '\\':
+				case '/':
+					value.append(escaped);
+					break;
+				case 'b':
+					value.append('\b');
+					break;
+				case 'f':
+					value.append('\f');
+					break;
+				case 'n':
+					value.append('\n');
+					break;
+				case 'r':
+					value.append('\r');
+					break;
+				case 't':
+					value.append('\t');
+					break;
+				case 'u':
+					int codePoint = index + 4 <= this.json.length() ? this.hexValue(index, index + 4) : -1;
+					if (codePoint < 0)
+					{
+						this.fail(DecodeError.MALFORMED_JSON, "invalid unicode escape at " + index);
+						return null;
+					}
+
+					value.append((char) codePoint);
+					index += 4;
+					break;
+				default:
+					this.fail(DecodeError.MALFORMED_JSON, "invalid escape at " + index);
+					return null;
+			}
+		}
+
+		this.fail(DecodeError.MALFORMED_JSON, "unterminated string at " + start);
+		return null;
+	}
+
+	private int hexValue(int start, int end)
+	{
+		int result = 0;
+		for (int index = start; index < end; index++)
+		{
+			int digit = Character.digit(this.json.charAt(index), 16);
+			if (digit < 0)
+			{
+				return -1;
+			}
+
+			result = (result << 4) | digit;
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return date from epoch seconds number, numeric string or ISO-8601 string, null for json null or on error
+	 */
+	private Instant nextDate()
+	{
+		if (this.error != null || this.consumeNull())
+		{
+			return null;
+		}
+
+		if (this.position < this.json.length() && this.json.charAt(this.position) != '"')
+		{
+			int start = this.position;
+			long epochSecond = this.nextLong();
+			if (this.position == start)
+			{
+				this.fail(DecodeError.INVALID_DATE, "expected date at " + start);
+				return null;
+			}
+
+			return this.toInstant(epochSecond);
+		}
+
+		String value = this.nextString();
+		if (value == null)
+		{
+			return null;
+		}
+
+		if (FrameDecoder.isDigits(value))
+		{
+			return this.toInstant(Long.parseLong(value));
+		}
+
+		try
+		{
+			return Instant.parse(value);
+		}
+		catch (DateTimeParseException e)
+		{
+			this.fail(DecodeError.INVALID_DATE, value);
+			return null;
+		}
+	}
+
+	/**
+	 * @param epochSecond
+	 * @return date of the epoch seconds, null on error if out of the range of Instant
+	 */
+	private Instant toInstant(long epochSecond)
+	{
+		if (epochSecond < Instant.MIN.getEpochSecond() || epochSecond > Instant.MAX.getEpochSecond())
+		{
+			this.fail(DecodeError.INVALID_DATE, String.valueOf(epochSecond));
+			return null;
+		}
+
+		return Instant.ofEpochSecond(epochSecond);
+	}
+
+	/**
+	 * read an integer number, a fraction or exponent is read and truncated to whole seconds
+	 * @return
+	 */
+	private long nextLong()
+	{
+		int start = this.position;
+		boolean negative = this.position < this.json.length() && this.json.charAt(this.position) == '-';
+		if (negative)
+		{
+			this.position++;
+		}
+
+		long result = 0;
+		int digits = 0;
+		while (this.position < this.json.length() && Character.isDigit(this.json.charAt(this.position)) && digits < 18)
+		{
+			result = result * 10 + (this.json.charAt(this.position++) - '0');
+			digits++;
+		}
+
+		if (digits == 0)
+		{
+			this.position = start;
+			return 0;
+		}
+
+		// uncommon number forms are parsed as double
+		int integerEnd = this.position;
+		while (this.position < this.json.length() && "0123456789.eE+-".indexOf(this.json.charAt(this.position)) >= 0)
+		{
+			this.position++;
+		}
+
+		if (this.position != integerEnd)
+		{
+			try
+			{
+				return (long) Double.parseDouble(this.json.substring(start, this.position));
+			}
+			catch (NumberFormatException e)
+			{
+				this.fail(DecodeError.INVALID_DATE, this.json.substring(start, this.position));
+				return 0;
+			}
+		}
+
+		return negative ? -result : result;
+	}
+
+	private static boolean isDigits(String value)
+	{
+		if (value.isEmpty() || value.length() > 18)
+		{
+			return false;
+		}
+
+		for (int index = 0; index < value.length(); index++)
+		{
+			if (!Character.isDigit(value.charAt(index)))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return sender type matched by name, null for json null or on error
+	 */
+	private SenderType nextSenderType()
+	{
+		if (this.error != null || this.consumeNull())
+		{
+			return null;
+		}
+
+		if (!this.consume('"'))
+		{
+			this.fail(DecodeError.INVALID_SENDER_TYPE, "expected string at " + this.position);
+			return null;
+		}
+
+		int start = this.position;
+		int end = this.json.indexOf('"', start);
+		if (end >= 0)
+		{
+			// compare in place, no String is created for known values
+			for (SenderType senderType : FrameDecoder.SENDER_TYPES)
+			{
+				if (this.nameEquals(start, end - start, senderType.name()))
+				{
+					this.position = end + 1;
+					return senderType;
+				}
+			}
+		}
+
+		this.fail(DecodeError.INVALID_SENDER_TYPE, end >= 0 ? this.json.substring(start, end) : this.json.substring(start));
+		return null;
+	}
+
+	/**
+	 * skip a value of a field this decoder does not bind, including nested objects and arrays
+	 */
+	private void skipValue()
+	{
+		if (this.error != null)
+		{
+			return;
+		}
+
+		int depth = 0;
+		do
+		{
+			this.skipWhitespace();
+			if (this.position >= this.json.length())
+			{
+				this.fail(DecodeError.MALFORMED_JSON, "unexpected end of frame");
+				return;
+			}
+
+			char c = this.json.charAt(this.position);
+			if (c == '"')
+			{
+				this.nextString();
+			}
+			else if (c == '{' || c == '[')
+			{
+				depth++;
+				this.position++;
+			}
+			else if (c == '}' || c == ']')
+			{
+				depth--;
+				this.position++;
+			}
+			else if (c == ',' || c == ':')
+			{
+				if (depth == 0)
+				{
+					this.fail(DecodeError.MALFORMED_JSON, "expected value at " + this.position);
+					return;
+				}
+
+				this.position++;
+			}
+			else
+			{
+				// number, true, false or null
+				int start = this.position;
+				while (this.position < this.json.length() && ",:]} \t\r\n".indexOf(this.json.charAt(this.position)) < 0)
+				{
+					this.position++;
+				}
+
+				if (this.position == start)
+				{
+					this.fail(DecodeError.MALFORMED_JSON, "expected value at " + start);
+					return;
+				}
+			}
+		}
+		while (depth > 0 && this.error == null);
+	}
+
+	private boolean consumeNull()
+	{
+		this.skipWhitespace();
+		if (this.json.startsWith("null", this.position))
+		{
+			this.position += 4;
+			return true;
+		}
+
+		return false;
+	}
+
+	private boolean consume(char expected)
+	{
+		this.skipWhitespace();
+		if (this.position < this.json.length() && this.json.charAt(this.position) == expected)
+		{
+			this.position++;
+			return true;
+		}
+
+		return false;
+	}
+
+	private void skipWhitespace()
+	{
+		while (this.position < this.json.length())
+		{
+			char c = this.json.charAt(this.position);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+			{
+				return;
+			}
+
+			this.position++;
+		}
+	}
+
+	/**
+	 * record the first error, later errors are caused by it
+	 * @return false
+	 */
+	private boolean fail(DecodeError error, String detail)
+	{
+		if (this.error == null)
+		{
+			this.error = error;
+			this.errorDetail = detail;
+		}
+
+		return false;
+	}
+}
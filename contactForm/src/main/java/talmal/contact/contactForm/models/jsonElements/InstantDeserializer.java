@@ -1,18 +1,18 @@
-package talmal.contact.contactForm.models.jsonElements;
-
-import java.lang.reflect.Type;
-import java.time.Instant;
-
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
-
-public class InstantDeserializer implements JsonDeserializer<Instant>
-{
-	@Override
-	public Instant deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)throws JsonParseException
-	{
-		return Instant.ofEpochSecond(json.getAsLong());
-	}
+package talmal.contact.contactForm.models.jsonElements;
+
+import java.lang.reflect.Type;
+import java.time.Instant;
+
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+
+public class InstantDeserializer implements JsonDeserializer<Instant>
+{
+	@Override
+	public Instant deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)throws JsonParseException
+	{
+		return Instant.ofEpochSecond(json.getAsLong());
+	}
 }
\ No newline at end of file
@@ -0,0 +1,256 @@
+package talmal.contact.contactForm.services;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * admission control in front of the requests to slack.<br>
+ * each client address and each chat has a token bucket of burst requests, refilled at ratePerSecond.
+ * buckets are kept in a bounded table, a bucket idle long enough to be full again is evicted.<br>
+ * requests to slack in progress are limited to maxConcurrent, requests over the limit fail with 429 instead of waiting.<br>
+ * while the instance drains on shutdown, every new request is refused and the requests in progress are counted until they finish
+ */
+@Component
+public class AdmissionControl
+{
+	private static final String KEY_PREFIX_ADDRESS = "address:";
+	private static final String KEY_PREFIX_CHAT = "chat:";
+
+	private final boolean enabled;
+	private final long refillInterval;
+	private final long burstInterval;
+	private final Cache<String, TokenBucket> buckets;
+	private final Semaphore concurrentRequests;
+	private final Counter rejectedAddress;
+	private final Counter rejectedChat;
+	private final Counter rejectedConcurrency;
+	private final Counter rejectedDraining;
+	private final long drainRetryAfter;
+	private final long drainRetryJitter;
+	private final AtomicInteger inFlightRequests;
+	// notified when the last request in progress finishes while draining
+	private final Object drainLock = new Object();
+	private volatile boolean draining;
+
+	public AdmissionControl(
+		@Value(value = "${services.admission.enabled:false}") boolean enabled,
+		@Value(value = "${services.admission.ratePerSecond:5}") double ratePerSecond,
+		@Value(value = "${services.admission.burst:20}") int burst,
+		@Value(value = "${services.admission.maxClients:100000}") long maxClients,
+		@Value(value = "${services.admission.maxConcurrent:256}") int maxConcurrent,
+		@Value(value = "${services.drain.retryAfter:1000}") long drainRetryAfter,
+		@Value(value = "${services.drain.retryJitter:5000}") long drainRetryJitter,
+		MeterRegistry meterRegistry)
+	{
+		this.enabled = enabled;
+		this.refillInterval = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+		this.burstInterval = this.refillInterval * burst;
+		this.buckets = Caffeine.newBuilder()
+			.maximumSize(maxClients)
+			.expireAfterAccess(Duration.ofNanos(this.burstInterval))
+			.build();
+		this.concurrentRequests = new Semaphore(maxConcurrent);
+		this.drainRetryAfter = drainRetryAfter;
+		this.drainRetryJitter = drainRetryJitter;
+		this.inFlightRequests = new AtomicInteger();
+
+		this.rejectedAddress = meterRegistry.counter("contact.admission.rejected", "reason", "rate_address");
+		this.rejectedChat = meterRegistry.counter("contact.admission.rejected", "reason", "rate_chat");
+		this.rejectedConcurrency = meterRegistry.counter("contact.admission.rejected", "reason", "concurrency");
+		this.rejectedDraining = meterRegistry.counter("contact.admission.rejected", "reason", "draining");
+	}
+
+	/**
+	 * refuse all new requests, the instance is shutting down
+	 */
+	public void startDraining()
+	{
+		this.draining = true;
+	}
+
+	/**
+	 * @return true if the instance is shutting down and refuses new requests
+	 */
+	public boolean isDraining()
+	{
+		return this.draining;
+	}
+
+	/**
+	 * count a request refused while draining
+	 */
+	public void rejectDraining()
+	{
+		this.rejectedDraining.increment();
+	}
+
+	/**
+	 * @return milliseconds until a client refused while draining may retry, spread so clients do not all reconnect at once
+	 */
+	public long getDrainRetryAfterMillis()
+	{
+		return this.drainRetryAfter + ThreadLocalRandom.current().nextLong(this.drainRetryJitter + 1);
+	}
+
+	/**
+	 * @return number of requests to slack in progress
+	 */
+	public int getInFlightRequests()
+	{
+		return this.inFlightRequests.get();
+	}
+
+	/**
+	 * wait for the requests to slack in progress to finish
+	 * @param deadline - System.nanoTime() to stop waiting at
+	 * @return true if no request is in progress
+	 * @throws InterruptedException
+	 */
+	public boolean awaitInFlightRequests(long deadline) throws InterruptedException
+	{
+		synchronized (this.drainLock)
+		{
+			while (this.inFlightRequests.get() > 0)
+			{
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0)
+				{
+					return false;
+				}
+
+				TimeUnit.NANOSECONDS.timedWait(this.drainLock, remaining);
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * take a token of a client address
+	 * @param address - remote address of the client, null is always admitted
+	 * @return true if the request is admitted
+	 */
+	public boolean tryAcquireAddress(String address)
+	{
+		boolean result = this.tryAcquire(AdmissionControl.KEY_PREFIX_ADDRESS, address);
+		if (!result)
+		{
+			this.rejectedAddress.increment();
+		}
+
+		return result;
+	}
+
+	/**
+	 * take a token of a chat
+	 * @param chatId - null is always admitted
+	 * @return true if the request is admitted
+	 */
+	public boolean tryAcquireChat(String chatId)
+	{
+		boolean result = this.tryAcquire(AdmissionControl.KEY_PREFIX_CHAT, chatId);
+		if (!result)
+		{
+			this.rejectedChat.increment();
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return seconds until a rejected client may retry
+	 */
+	public long getRetryAfterSeconds()
+	{
+		return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(this.refillInterval));
+	}
+
+	/**
+	 * limit requests to slack in progress, and count them for the drain on shutdown
+	 * @param request
+	 * @return request, or a 429 ResponseStatusException if too many requests are in progress, or a 503 one while draining
+	 */
+	public <T> Mono<T> limitConcurrency(Mono<T> request)
+	{
+		return Mono.defer(() ->
+		{
+			if (this.draining)
+			{
+				this.rejectedDraining.increment();
+				return Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Shutting down"));
+			}
+
+			if (this.enabled && !this.concurrentRequests.tryAcquire())
+			{
+				this.rejectedConcurrency.increment();
+				return Mono.error(new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many requests in progress"));
+			}
+
+			this.inFlightRequests.incrementAndGet();
+			return request.doFinally(signalType ->
+			{
+				if (this.inFlightRequests.decrementAndGet() == 0 && this.draining)
+				{
+					synchronized (this.drainLock)
+					{
+						this.drainLock.notifyAll();
+					}
+				}
+
+				if (this.enabled)
+				{
+					this.concurrentRequests.release();
+				}
+			});
+		});
+	}
+
+	private boolean tryAcquire(String keyPrefix, String key)
+	{
+		return !this.enabled || key == null || this.buckets.get(keyPrefix + key, k -> new TokenBucket()).tryAcquire(this.refillInterval, this.burstInterval);
+	}
+
+	/**
+	 * lock free token bucket, kept as the time the bucket is full again (generic cell rate algorithm).<br>
+	 * a request takes a token by moving that time refillInterval ahead, unless it would be more than burstInterval ahead of now
+	 */
+	private static class TokenBucket
+	{
+		private final AtomicLong fullTime = new AtomicLong(System.nanoTime());
+
+		private boolean tryAcquire(long refillInterval, long burstInterval)
+		{
+			while (true)
+			{
+				long now = System.nanoTime();
+				long currentFullTime = this.fullTime.get();
+				long nextFullTime = Math.max(currentFullTime, now) + refillInterval;
+				if (nextFullTime - now > burstInterval)
+				{
+					return false;
+				}
+
+				if (this.fullTime.compareAndSet(currentFullTime, nextFullTime))
+				{
+					return true;
+				}
+			}
+		}
+	}
+}
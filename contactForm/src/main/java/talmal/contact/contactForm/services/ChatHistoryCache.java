@@ -0,0 +1,213 @@
+package talmal.contact.contactForm.services;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.MessageIdFlag;
+
+/**
+ * bounded cache of chat histories loaded from slack, by chat id.<br>
+ * a history is cached only after it was fully loaded, and kept current by appending new messages of the chat.
+ * messages appended while the history of their chat is loaded are merged into it when it is cached.<br>
+ * cached histories are immutable and sorted by date, an append replaces the history of the chat with a copy.<br>
+ * the cache is enabled by default only in broadcast mode, otherwise a message from slack reaches a single instance
+ * and the histories cached by the others miss it. entries expire after write, so a history read often is still reloaded
+ */
+@Component
+public class ChatHistoryCache
+{
+	private static final String CACHE_NAME = "chatHistory";
+
+	// messages without a date are kept first, the order of messages of the same date is kept
+	private static final Comparator<ChatMessage> BY_DATE = Comparator.comparing(ChatMessage::getDate, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+	private final boolean enabled;
+	private final Cache<String, List<ChatMessage>> histories;
+
+	// messages appended to chats whose history is being loaded, by chat id
+	private final Map<String, List<ChatMessage>> loadingAppends = new ConcurrentHashMap<String, List<ChatMessage>>();
+
+	public ChatHistoryCache(
+		@Value(value = "${services.cache.history.enabled:${services.queue.broadcast:false}}") boolean enabled,
+		@Value(value = "${services.cache.history.maxChats:10000}") long maxChats,
+		@Value(value = "${services.cache.history.expireAfterWrite:600000}") long expireAfterWrite,
+		MeterRegistry meterRegistry)
+	{
+		this.enabled = enabled;
+		this.histories = Caffeine.newBuilder()
+			.maximumSize(maxChats)
+			.expireAfterWrite(Duration.ofMillis(expireAfterWrite))
+			.recordStats()
+			.build();
+
+		CaffeineCacheMetrics.monitor(meterRegistry, this.histories, ChatHistoryCache.CACHE_NAME);
+	}
+
+	/**
+	 * @param chatId
+	 * @return cached history of the chat, or null if it is not cached
+	 */
+	public List<ChatMessage> get(String chatId)
+	{
+		return this.enabled ? this.histories.getIfPresent(chatId) : null;
+	}
+
+	/**
+	 * start recording the messages appended to a chat, before its history is requested
+	 * @param chatId
+	 */
+	public void startLoad(String chatId)
+	{
+		if (this.enabled)
+		{
+			this.loadingAppends.putIfAbsent(chatId, new ArrayList<ChatMessage>());
+		}
+	}
+
+	/**
+	 * stop recording the messages appended to a chat, once its load terminated, cached or not
+	 * @param chatId
+	 */
+	public void endLoad(String chatId)
+	{
+		this.loadingAppends.remove(chatId);
+	}
+
+	/**
+	 * cache a fully loaded history of a chat, with the messages appended since its load started
+	 * @param chatId
+	 * @param history
+	 */
+	public void put(String chatId, List<ChatMessage> history)
+	{
+		if (!this.enabled)
+		{
+			return;
+		}
+
+		// an append either is recorded before this, or finds the history already cached
+		this.loadingAppends.compute(chatId, (key, appends) ->
+		{
+			List<ChatMessage> mergedHistory = new ArrayList<ChatMessage>(history);
+			if (appends != null)
+			{
+				for (ChatMessage chatMessage : appends)
+				{
+					if (ChatHistoryCache.indexOf(mergedHistory, chatMessage.getMessageId()) < 0)
+					{
+						mergedHistory.add(chatMessage);
+					}
+				}
+			}
+
+			this.histories.put(chatId, Collections.unmodifiableList(ChatHistoryCache.sortByDate(mergedHistory)));
+			return null;
+		});
+	}
+
+	/**
+	 * insert a new message to the cached history of its chat, by its date.<br>
+	 * recorded if the history of the chat is being loaded, 
+	 * ignored if the history is not cached, or already holds a message with the same message id
+	 * @param chatMessage
+	 */
+	public void append(ChatMessage chatMessage)
+	{
+		if (!this.enabled || chatMessage.getChatId() == null || !ChatHistoryCache.isSlackMessageId(chatMessage.getMessageId()))
+		{
+			return;
+		}
+
+		this.loadingAppends.computeIfPresent(chatMessage.getChatId(), (chatId, appends) ->
+		{
+			appends.add(chatMessage);
+			return appends;
+		});
+
+		this.histories.asMap().computeIfPresent(chatMessage.getChatId(), (chatId, history) ->
+		{
+			if (ChatHistoryCache.indexOf(history, chatMessage.getMessageId()) >= 0)
+			{
+				return history;
+			}
+
+			// new messages are usually the newest, find the position from the end
+			int position = history.size();
+			while (position > 0 && ChatHistoryCache.BY_DATE.compare(history.get(position - 1), chatMessage) > 0)
+			{
+				position--;
+			}
+
+			List<ChatMessage> appendedHistory = new ArrayList<ChatMessage>(history.size() + 1);
+			appendedHistory.addAll(history.subList(0, position));
+			appendedHistory.add(chatMessage);
+			appendedHistory.addAll(history.subList(position, history.size()));
+			return Collections.unmodifiableList(appendedHistory);
+		});
+	}
+
+	/**
+	 * @param history
+	 * @return copy of the history sorted by date
+	 */
+	static List<ChatMessage> sortByDate(List<ChatMessage> history)
+	{
+		List<ChatMessage> sortedHistory = new ArrayList<ChatMessage>(history);
+		sortedHistory.sort(ChatHistoryCache.BY_DATE);
+		return sortedHistory;
+	}
+
+	/**
+	 * @param history
+	 * @param messageId
+	 * @return index of the message with the message id in the history, or -1 if there is none
+	 */
+	private static int indexOf(List<ChatMessage> history, String messageId)
+	{
+		for (int index = 0; index < history.size(); index++)
+		{
+			if (messageId.equals(history.get(index).getMessageId()))
+			{
+				return index;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @param messageId
+	 * @return true if the message id was given by slack, and not a flag of a failed message
+	 */
+	private static boolean isSlackMessageId(String messageId)
+	{
+		if (messageId == null)
+		{
+			return false;
+		}
+
+		for (MessageIdFlag messageIdFlag : MessageIdFlag.values())
+		{
+			if (messageIdFlag.name().equals(messageId))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
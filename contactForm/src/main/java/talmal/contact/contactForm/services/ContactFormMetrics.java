@@ -0,0 +1,180 @@
+package talmal.contact.contactForm.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.amqp.core.AmqpReplyTimeoutException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * application metrics, exposed by the actuator prometheus endpoint.<br>
+ * circuit breaker state is exposed by resilience4j as resilience4j_circuitbreaker_state, 
+ * open sessions and outbound queues by WebSocketSessionRegistry
+ */
+@Component
+public class ContactFormMetrics
+{
+	private static final String TAG_QUEUE = "queue";
+	private static final String TAG_OUTCOME = "outcome";
+
+	private final MeterRegistry meterRegistry;
+	private final long replyTimeout;
+	private final Counter fanOutReceived;
+	private final Counter fanOutInactiveChat;
+	private final Timer fanOutDuration;
+	private final Timer deliveryLatency;
+	private final Counter historyLoadStarted;
+	private final Counter historyLoadCoalesced;
+
+	/**
+	 * @param meterRegistry
+	 * @param replyTimeout - milliseconds the circuit breaker waits for a reply before it cancels the round trip
+	 */
+	public ContactFormMetrics(MeterRegistry meterRegistry, @Value(value = "${services.circuitBreaker.timeoutDuration}") long replyTimeout)
+	{
+		this.meterRegistry = meterRegistry;
+		this.replyTimeout = TimeUnit.MILLISECONDS.toNanos(replyTimeout);
+		this.fanOutReceived = Counter.builder("contact.fanout.received")
+			.description("messages received from slack").register(meterRegistry);
+		this.fanOutInactiveChat = Counter.builder("contact.fanout.inactive")
+			.description("messages received from slack for a chat without open session on this instance").register(meterRegistry);
+		this.fanOutDuration = Timer.builder("contact.fanout.duration")
+			.description("time to hand a message from slack to all sessions of its chat").publishPercentileHistogram().register(meterRegistry);
+		this.deliveryLatency = Timer.builder("contact.delivery.latency")
+			.description("time from message date in slack until handed to the browser sessions").publishPercentileHistogram()
+			.minimumExpectedValue(Duration.ofMillis(100)).maximumExpectedValue(Duration.ofMinutes(1)).register(meterRegistry);
+		this.historyLoadStarted = Counter.builder("contact.history.load.started")
+			.description("chat history loads sent to slack").register(meterRegistry);
+		this.historyLoadCoalesced = Counter.builder("contact.history.load.coalesced")
+			.description("chat history loads joined to a load of the same chat already in flight").register(meterRegistry);
+	}
+
+	/**
+	 * record round trip latency of a queue request/reply, and count null replies and timeouts.<br>
+	 * the time limiter of the circuit breaker is applied downstream and cancels the round trip,
+	 * so a cancel once the reply timeout has elapsed is counted as a timeout
+	 * @param queue
+	 * @param reply
+	 * @return reply, timed from subscription until it completes, fails or is cancelled
+	 */
+	public <T> Mono<T> timeRoundTrip(String queue, Mono<T> reply)
+	{
+		return Mono.defer(() ->
+		{
+			Timer.Sample sample = Timer.start(this.meterRegistry);
+			long start = this.meterRegistry.config().clock().monotonicTime();
+			boolean[] hasReply = new boolean[1];
+			Throwable[] failure = new Throwable[1];
+
+			return reply
+				.doOnNext(value -> hasReply[0] = true)
+				.doOnError(throwable -> failure[0] = throwable)
+				.doFinally(signalType ->
+				{
+					long elapsed = this.meterRegistry.config().clock().monotonicTime() - start;
+					sample.stop(this.roundTripTimer(queue, this.outcomeOf(signalType, elapsed, hasReply[0], failure[0])));
+				});
+		});
+	}
+
+	/**
+	 * count a message received from slack
+	 * @param delivered - true if the chat has an open session on this instance
+	 */
+	public void fanOut(boolean delivered)
+	{
+		this.fanOutReceived.increment();
+		if (!delivered)
+		{
+			this.fanOutInactiveChat.increment();
+		}
+	}
+
+	/**
+	 * count a chat history load
+	 * @param coalesced - true if the load joined a load of the same chat already in flight
+	 */
+	public void historyLoad(boolean coalesced)
+	{
+		if (coalesced)
+		{
+			this.historyLoadCoalesced.increment();
+		}
+		else
+		{
+			this.historyLoadStarted.increment();
+		}
+	}
+
+	/**
+	 * @return timer of the fan-out of a message from slack to its sessions
+	 */
+	public Timer getFanOutDuration()
+	{
+		return this.fanOutDuration;
+	}
+
+	/**
+	 * record end to end latency, from slack to browser, of a message handed to its sessions
+	 * @param date - date of the message in slack
+	 */
+	public void delivered(Instant date)
+	{
+		if (date != null)
+		{
+			Duration latency = Duration.between(date, Instant.now());
+			if (!latency.isNegative())
+			{
+				this.deliveryLatency.record(latency);
+			}
+		}
+	}
+
+	private Timer roundTripTimer(String queue, String outcome)
+	{
+		// the registry returns the existing timer for known tags
+		return Timer.builder("contact.queue.roundtrip")
+			.description("round trip latency of queue request/reply")
+			.tag(ContactFormMetrics.TAG_QUEUE, queue)
+			.tag(ContactFormMetrics.TAG_OUTCOME, outcome)
+			.publishPercentileHistogram()
+			.register(this.meterRegistry);
+	}
+
+	private String outcomeOf(SignalType signalType, long elapsed, boolean hasReply, Throwable failure)
+	{
+		String result;
+		if (signalType == SignalType.CANCEL)
+		{
+			// the timer of the time limiter starts after this subscription, a cancel by it comes after the whole timeout
+			result = elapsed >= this.replyTimeout ? "timeout" : "cancelled";
+		}
+		else if (failure instanceof AmqpReplyTimeoutException || failure instanceof TimeoutException)
+		{
+			result = "timeout";
+		}
+		else if (failure != null)
+		{
+			result = "error";
+		}
+		else if (!hasReply)
+		{
+			result = "null_reply";
+		}
+		else
+		{
+			result = "success";
+		}
+
+		return result;
+	}
+}
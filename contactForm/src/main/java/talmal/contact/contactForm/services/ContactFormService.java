@@ -1,217 +1,497 @@
-package talmal.contact.contactForm.services;
-
-import java.time.Duration;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
-
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cloud.circuitbreaker.resilience4j.ReactiveResilience4JCircuitBreakerFactory;
-import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
-import org.springframework.cloud.context.config.annotation.RefreshScope;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
-
-import com.google.gson.reflect.TypeToken;
-
-import io.github.resilience4j.timelimiter.TimeLimiterConfig;
-import lombok.extern.slf4j.Slf4j;
-import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
-import talmal.contact.contactForm.config.MessagingConfig;
-import talmal.contact.contactForm.config.SlackGson;
-import talmal.contact.contactForm.models.ContactDetails;
-import talmal.contact.contactForm.models.context.ChatIdFlag;
-import talmal.contact.contactForm.models.context.ChatMessage;
-import talmal.contact.contactForm.models.context.MessageIdFlag;
-import talmal.contact.contactForm.models.context.SenderType;
-
-@Service
-@Slf4j
-@RefreshScope
-public class ContactFormService
-{
-	@Value(value = "${services.endpoints.create}")
-	private String messageSenderEndpointStartChat;
-
-	@Value(value = "${services.endpoints.send}")
-	private String messageSenderEndpointSend;
-
-	@Value(value = "${services.endpoints.open}")
-	private String messageSenderEndpointOpen;
-
-	@Value(value = "${services.circuitBreaker.timeoutDuration}")
-	private long circuitBreakerTimeoutDuration;
-	
-	@Autowired
-	private WebClient.Builder webClientBuilder;
-
-	private ReactiveCircuitBreaker circuitBreaker;
-	private static final String CIRCUIT_BREAKER_ID_TO_MESSAGE_SENDER = "toMessageSender";
-	
-	@Autowired
-	private MessageQueueService messageQueueService;
-
-	public ContactFormService(ReactiveResilience4JCircuitBreakerFactory circuiteBreaerFactory)
-	{
-		circuiteBreaerFactory.configure(t -> {
-			t.timeLimiterConfig(TimeLimiterConfig.custom().timeoutDuration(Duration.ofMillis(this.circuitBreakerTimeoutDuration)).build());
-		}, ContactFormService.CIRCUIT_BREAKER_ID_TO_MESSAGE_SENDER);
-		this.circuitBreaker = circuiteBreaerFactory.create(ContactFormService.CIRCUIT_BREAKER_ID_TO_MESSAGE_SENDER);
-	}
-	
-	/**
-	 * send startChat request directly to messageSender server using http call
-	 * @param contactDetails
-	 * @return
-	 */
-	public Mono<ChatMessage> startChat(ContactDetails contactDetails)
-	{
-		// send contact details to message sender service, to start a new chat
-		return this.webClientBuilder.build().post().uri(this.messageSenderEndpointStartChat).bodyValue(contactDetails)
-		.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).retrieve()
-		.bodyToMono(ChatMessage.class);
-	}
-
-	/**
-	 * send newMessage request directly to messageSender server using http call
-	 * @param chatMessage
-	 * @return
-	 */
-	public Mono<ChatMessage> newMessage(ChatMessage chatMessage)
-	{
-		// send message to message-sender service
-		return this.webClientBuilder.build().post().uri(this.messageSenderEndpointSend).bodyValue(chatMessage)
-			.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).retrieve()
-			.bodyToMono(ChatMessage.class);
-	}
-
-	/**
-	 * send loadMessages request directly to messageSender server using http call 
-	 * @param chatId
-	 * @return
-	 */
-	public Flux<ChatMessage> loadChat(String chatId)
-	{
-		final String finalChatId = chatId.isBlank() || chatId == null ? MessageIdFlag.INVALID.name() : chatId; 
-		String targetUrl = String.format(this.messageSenderEndpointOpen + "?chatId=%s", finalChatId);
-
-		return this.webClientBuilder.build().get().uri(targetUrl)
-				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).retrieve()
-				.bodyToFlux(ChatMessage.class);
-	}
-
-	
-	/**
-	 * send startChat request by message queue system
-	 * @param contactDetails
-	 * @return
-	 */
-	public Mono<ChatMessage> queueStartChat(ContactDetails contactDetails)
-	{
-		// send contact details to message sender service
-		return this.circuitBreaker.run(
-			this.parseQueueResponse(
-				contactDetails, 
-				(String) this.messageQueueService.convertAndSendMessageAndReceiveMessage(MessagingConfig.TO_SLACK_START_CHAT_QUEUE, contactDetails)), 
-			throwable -> 
-		{
-			// handle communication failure 
-			log.error(throwable.getMessage(), throwable);
-			return Mono.just(new ChatMessage(throwable, contactDetails));
-		});
-	}
-
-	/**
-	 * send newMessage request by message queue system 
-	 * @param chatMessage
-	 * @return
-	 */
-	public Mono<ChatMessage> queueNewMessage(ChatMessage chatMessage)
-	{
-		// send message to RabbitMQ message queue
-		return this.circuitBreaker.run(this.parseQueueResponse(chatMessage, (String) this.messageQueueService
-			.convertAndSendMessageAndReceiveMessage(MessagingConfig.TO_SLACK_NEW_MESSAGE_QUEUE, chatMessage)), 
-			throwable -> 
-		{
-			// handle communication failure 
-			log.error(throwable.getMessage(), throwable);
-			return Mono.just(new ChatMessage(throwable, chatMessage));
-		});
-	}
-
-	/**
-	 * send loadMessages request by message queue system 
-	 * @param chatId
-	 * @return
-	 */
-	public Flux<ChatMessage> queueLoadChat(String chatId)
-	{
-		Flux<ChatMessage> result = Flux.empty();
-		chatId = (chatId == null || chatId.isBlank()) ? MessageIdFlag.INVALID.name() : chatId;
-
-		// send message to RabbitMQ message queue
-		String loadChatMessagesResponse = (String) this.messageQueueService.convertAndSendMessageAndReceiveMessage(MessagingConfig.TO_SLACK_LOAD_CHAT_QUEUE, chatId);
-		
-		// read response as list of messages
-		List<ChatMessage> chatMessages = SlackGson.fromJson(loadChatMessagesResponse, new TypeToken<ArrayList<ChatMessage>>(){}.getType());
-		if(chatMessages != null)
-		{
-			result = Flux.fromStream(chatMessages.stream());
-		}
-		else
-		{
-			log.error("Received an empty response from chatLoad queue, with chatId: {}",chatId);
-		}
-		
-		return result;
-	}
-
-	/**
-	 * parse response from message queue
-	 * @param request
-	 * @param response
-	 * @return
-	 */
-	private Mono<ChatMessage> parseQueueResponse(Object request, String response)
-	{
-		Mono<ChatMessage> result = null;
-
-		log.debug("Request: {}, Response: {}", request, response);
-		if (response == null)
-		{
-			log.error("Null response to queueStartChat with details {}", request);
-
-			if(request instanceof ChatMessage)
-			{
-				ChatMessage requestChatMessage = (ChatMessage)request;
-				requestChatMessage.setMessageId(MessageIdFlag.COMMUNICATION_ERROR.name());
-				result = Mono.just(requestChatMessage);
-			}
-			else if(request instanceof ContactDetails)
-			{
-				ContactDetails requestContactDetails = (ContactDetails)request;
-				result = Mono.just(new ChatMessage(
-					ChatIdFlag.COMMUNICATION_ERROR.name(),
-					MessageIdFlag.COMMUNICATION_ERROR.name(),
-					requestContactDetails.getName(),
-					requestContactDetails.getMessage(),
-					Instant.now(),
-					SenderType.USER));
-			}
-			else
-			{
-				log.error("Unimplemented request type for message send.");
-			}
-		}
-		else
-		{
-			result = Mono.just(SlackGson.fromJson(response, ChatMessage.class));
-		}
-
-		return result;
-	}
-}
+package talmal.contact.contactForm.services;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.circuitbreaker.resilience4j.ReactiveResilience4JCircuitBreakerFactory;
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import io.github.resilience4j.timelimiter.TimeLimiterConfig;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SynchronousSink;
+import talmal.contact.contactForm.config.MessagingConfig;
+import talmal.contact.contactForm.config.SlackGson;
+import talmal.contact.contactForm.models.ContactDetails;
+import talmal.contact.contactForm.models.context.ChatIdFlag;
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.MessageIdFlag;
+import talmal.contact.contactForm.models.context.ResumeCursor;
+import talmal.contact.contactForm.models.context.SenderType;
+
+@Service
+@Slf4j
+@RefreshScope
+public class ContactFormService
+{
+	@Value(value = "${services.endpoints.create}")
+	private String messageSenderEndpointStartChat;
+
+	@Value(value = "${services.endpoints.send}")
+	private String messageSenderEndpointSend;
+
+	@Value(value = "${services.endpoints.open}")
+	private String messageSenderEndpointOpen;
+
+	@Value(value = "${services.circuitBreaker.timeoutDuration}")
+	private long circuitBreakerTimeoutDuration;
+
+	@Value(value = "${services.transport.create:QUEUE}")
+	private Transport transportStartChat;
+
+	@Value(value = "${services.transport.send:QUEUE}")
+	private Transport transportNewMessage;
+
+	@Value(value = "${services.transport.open:QUEUE}")
+	private Transport transportLoadChat;
+	
+	@Autowired
+	private WebClient.Builder webClientBuilder;
+
+	// built once, all http calls share the connection pool of the builder
+	private WebClient webClient;
+
+	private ReactiveCircuitBreaker circuitBreaker;
+	static final String CIRCUIT_BREAKER_ID_TO_MESSAGE_SENDER = "toMessageSender";
+
+	// http calls have their own circuit breaker, so a failing transport does not open the circuit of the other
+	private ReactiveCircuitBreaker httpCircuitBreaker;
+	static final String CIRCUIT_BREAKER_ID_TO_MESSAGE_SENDER_HTTP = "toMessageSenderHttp";
+	
+	@Autowired
+	private MessageQueueService messageQueueService;
+
+	@Autowired
+	private ChatHistoryCache chatHistoryCache;
+
+	@Autowired
+	private ContactFormMetrics contactFormMetrics;
+
+	@Autowired
+	private TransportRouter transportRouter;
+
+	@Autowired
+	private MessageOutbox messageOutbox;
+
+	@Autowired
+	private AdmissionControl admissionControl;
+
+	// history loads in flight by chat id, shared by all concurrent loads of the same chat
+	private final Map<String, Flux<ChatMessage>> inFlightLoads = new ConcurrentHashMap<String, Flux<ChatMessage>>();
+
+	public ContactFormService(ReactiveResilience4JCircuitBreakerFactory circuiteBreaerFactory)
+	{
+		circuiteBreaerFactory.configure(t -> {
+			t.timeLimiterConfig(TimeLimiterConfig.custom().timeoutDuration(Duration.ofMillis(this.circuitBreakerTimeoutDuration)).build());
+		}, ContactFormService.CIRCUIT_BREAKER_ID_TO_MESSAGE_SENDER, ContactFormService.CIRCUIT_BREAKER_ID_TO_MESSAGE_SENDER_HTTP);
+		this.circuitBreaker = circuiteBreaerFactory.create(ContactFormService.CIRCUIT_BREAKER_ID_TO_MESSAGE_SENDER);
+		this.httpCircuitBreaker = circuiteBreaerFactory.create(ContactFormService.CIRCUIT_BREAKER_ID_TO_MESSAGE_SENDER_HTTP);
+	}
+
+	@PostConstruct
+	void init()
+	{
+		this.webClient = this.webClientBuilder.build();
+	}
+
+	/**
+	 * send startChat request with the transport set by services.transport.create, 
+	 * or with the other transport while it is degraded
+	 * @param contactDetails
+	 * @return reply, or a 429 ResponseStatusException if too many requests are in progress
+	 */
+	public Mono<ChatMessage> dispatchStartChat(ContactDetails contactDetails)
+	{
+		Transport transport = this.transportRouter.route(this.transportStartChat);
+		return this.admissionControl.limitConcurrency(this.transportRouter.observe(transport, 
+			transport == Transport.HTTP ? this.startChat(contactDetails) : this.queueStartChat(contactDetails), 
+			ContactFormService::isCommunicationError));
+	}
+
+	/**
+	 * send newMessage request with the transport set by services.transport.send, 
+	 * or with the other transport while it is degraded
+	 * @param chatMessage
+	 * @return reply, or a 429 ResponseStatusException if too many requests are in progress
+	 */
+	public Mono<ChatMessage> dispatchNewMessage(ChatMessage chatMessage)
+	{
+		Transport transport = this.transportRouter.route(this.transportNewMessage);
+		return this.admissionControl.limitConcurrency(this.transportRouter.observe(transport, 
+			transport == Transport.HTTP ? this.newMessage(chatMessage) : this.queueNewMessage(chatMessage), 
+			ContactFormService::isCommunicationError));
+	}
+
+	/**
+	 * send loadMessages request with the transport set by services.transport.open, 
+	 * or with the other transport while it is degraded.<br>
+	 * a load is observed by loadChat or queueLoadChatHistory, where its failure is still visible and cache hits are left out
+	 * @param chatId
+	 * @return
+	 */
+	public Flux<ChatMessage> dispatchLoadChat(String chatId)
+	{
+		Transport transport = this.transportRouter.route(this.transportLoadChat);
+		return transport == Transport.HTTP ? this.loadChat(chatId) : this.queueLoadChat(chatId);
+	}
+
+	/**
+	 * load the messages a reconnecting frontend missed.<br>
+	 * served from the history cache when the chat is cached, so the cost follows the missed messages and not the history length.
+	 * otherwise the whole history is loaded, sorted by date, and cut at the cursor
+	 * @param chatId
+	 * @param resumeCursor - last message seen by the frontend, or null to load the whole history
+	 * @return messages after the cursor, sorted by date
+	 */
+	public Flux<ChatMessage> dispatchLoadChat(String chatId, ResumeCursor resumeCursor)
+	{
+		if (resumeCursor == null)
+		{
+			return this.dispatchLoadChat(chatId);
+		}
+
+		List<ChatMessage> cachedHistory = chatId != null ? this.chatHistoryCache.get(chatId) : null;
+		if (cachedHistory != null)
+		{
+			return Flux.fromIterable(resumeCursor.after(cachedHistory));
+		}
+
+		return this.dispatchLoadChat(chatId)
+			.collectList()
+			.flatMapIterable(history -> resumeCursor.after(ChatHistoryCache.sortByDate(history)));
+	}
+
+	/**
+	 * @param chatMessage
+	 * @return true if the message is the fallback of a failed request, queued in the outbox or not
+	 */
+	private static boolean isCommunicationError(ChatMessage chatMessage)
+	{
+		return MessageIdFlag.COMMUNICATION_ERROR.name().equals(chatMessage.getMessageId())
+			|| MessageIdFlag.QUEUED.name().equals(chatMessage.getMessageId());
+	}
+
+	/**
+	 * send startChat request directly to messageSender server using http call.<br>
+	 * a failure is answered with a COMMUNICATION_ERROR message, as by the queue transport
+	 * @param contactDetails
+	 * @return
+	 */
+	public Mono<ChatMessage> startChat(ContactDetails contactDetails)
+	{
+		// send contact details to message sender service, to start a new chat
+		return this.httpCircuitBreaker.run(
+			this.webClient.post().uri(this.messageSenderEndpointStartChat).bodyValue(contactDetails)
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).retrieve()
+				.bodyToMono(ChatMessage.class)
+				.switchIfEmpty(Mono.defer(() -> ContactFormService.parseQueueResponse(contactDetails, null))), 
+			throwable -> 
+		{
+			// handle communication failure 
+			log.error(throwable.getMessage(), throwable);
+			return Mono.just(new ChatMessage(throwable, contactDetails));
+		});
+	}
+
+	/**
+	 * send newMessage request directly to messageSender server using http call.<br>
+	 * a failure is answered with a COMMUNICATION_ERROR message, as by the queue transport
+	 * @param chatMessage
+	 * @return
+	 */
+	public Mono<ChatMessage> newMessage(ChatMessage chatMessage)
+	{
+		// send message to message-sender service
+		return this.httpCircuitBreaker.run(
+			this.webClient.post().uri(this.messageSenderEndpointSend).bodyValue(chatMessage)
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).retrieve()
+				.bodyToMono(ChatMessage.class)
+				.switchIfEmpty(Mono.defer(() -> ContactFormService.parseQueueResponse(chatMessage, null))), 
+			throwable -> 
+		{
+			// handle communication failure 
+			log.error(throwable.getMessage(), throwable);
+			return Mono.just(new ChatMessage(throwable, chatMessage));
+		})
+		.doOnNext(this.chatHistoryCache::append);
+	}
+
+	/**
+	 * send loadMessages request directly to messageSender server using http call.<br>
+	 * a failure ends the history without an error, as by the queue transport
+	 * @param chatId
+	 * @return
+	 */
+	public Flux<ChatMessage> loadChat(String chatId)
+	{
+		final String finalChatId = (chatId == null || chatId.isBlank()) ? MessageIdFlag.INVALID.name() : chatId;
+
+		// chat id is encoded as a query parameter, observed before its failure is handled so the router sees it
+		return this.transportRouter.observe(Transport.HTTP, 
+				this.httpCircuitBreaker.run(this.webClient.get().uri(this.messageSenderEndpointOpen + "?chatId={chatId}", finalChatId)
+					.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE).retrieve()
+					.bodyToFlux(ChatMessage.class)))
+			.onErrorResume(throwable -> 
+			{
+				log.error(throwable.getMessage(), throwable);
+				return Flux.empty();
+			});
+	}
+	
+	/**
+	 * send startChat request by message queue system
+	 * @param contactDetails
+	 * @return
+	 */
+	public Mono<ChatMessage> queueStartChat(ContactDetails contactDetails)
+	{
+		// send contact details to message sender service, not recorded in the outbox: 
+		// the frontend learns the chat id only from this reply, so a replayed chat could never be reached
+		return this.circuitBreaker.run(
+			this.messageQueueService.convertAndSendMessageAndReceiveMessage(MessagingConfig.TO_SLACK_START_CHAT_QUEUE, contactDetails)
+				.flatMap(response -> ContactFormService.parseQueueResponse(contactDetails, response))
+				.switchIfEmpty(Mono.defer(() -> ContactFormService.parseQueueResponse(contactDetails, null))), 
+			throwable -> 
+		{
+			// handle communication failure 
+			log.error(throwable.getMessage(), throwable);
+			return Mono.just(new ChatMessage(throwable, contactDetails));
+		});
+	}
+
+	/**
+	 * send newMessage request by message queue system
+	 * @param chatMessage
+	 * @return
+	 */
+	public Mono<ChatMessage> queueNewMessage(ChatMessage chatMessage)
+	{
+		// send message to RabbitMQ message queue, recorded in the outbox before the circuit breaker, until the reply arrives
+		return Mono.defer(() -> 
+		{
+			long outboxRecord = this.messageOutbox.append(MessageOutbox.Kind.NEW_MESSAGE, chatMessage);
+			return this.circuitBreaker.run(
+				this.messageQueueService.convertAndSendMessageAndReceiveMessage(MessagingConfig.TO_SLACK_NEW_MESSAGE_QUEUE, chatMessage)
+					.doOnSuccess(response -> this.messageOutbox.markSent(outboxRecord))
+					.flatMap(response -> ContactFormService.parseQueueResponse(chatMessage, response))
+					.switchIfEmpty(Mono.defer(() -> ContactFormService.parseQueueResponse(chatMessage, null))), 
+				throwable -> 
+			{
+				// handle communication failure, a message left in the outbox is replayed so the frontend must not send it again
+				log.error(throwable.getMessage(), throwable);
+				if (this.messageOutbox.isPending(outboxRecord))
+				{
+					return Mono.just(new ChatMessage(chatMessage.getChatId(), MessageIdFlag.QUEUED.name(), chatMessage.getName(), 
+						chatMessage.getMessage(), chatMessage.getDate() != null ? chatMessage.getDate() : Instant.now(), chatMessage.getSenderType()));
+				}
+
+				return Mono.just(new ChatMessage(throwable, chatMessage));
+			});
+		})
+		.doOnNext(this.chatHistoryCache::append);
+	}
+
+	/**
+	 * send loadMessages request by message queue system.<br>
+	 * served from the history cache when the chat was already loaded, a complete load is cached for the next calls.<br>
+	 * concurrent loads of the same chat share a single queue request, and each gets all of its messages
+	 * @param chatId
+	 * @return
+	 */
+	public Flux<ChatMessage> queueLoadChat(String chatId)
+	{
+		final String finalChatId = (chatId == null || chatId.isBlank()) ? MessageIdFlag.INVALID.name() : chatId;
+
+		List<ChatMessage> cachedHistory = this.chatHistoryCache.get(finalChatId);
+		if (cachedHistory != null)
+		{
+			return Flux.fromIterable(cachedHistory);
+		}
+
+		boolean[] isNewLoad = new boolean[1];
+		Flux<ChatMessage> load = this.inFlightLoads.computeIfAbsent(finalChatId, key -> 
+		{
+			isNewLoad[0] = true;
+			return this.queueLoadChatHistory(finalChatId);
+		});
+
+		this.contactFormMetrics.historyLoad(!isNewLoad[0]);
+		return load;
+	}
+
+	/**
+	 * send a single loadMessages request, replayed to all of its subscribers.<br>
+	 * the request is sent on first subscription and removed from the in flight loads when it terminates
+	 * @param chatId
+	 * @return
+	 */
+	private Flux<ChatMessage> queueLoadChatHistory(String chatId)
+	{
+		AtomicReference<Flux<ChatMessage>> sharedLoad = new AtomicReference<Flux<ChatMessage>>();
+
+		// send message to RabbitMQ message queue, observed before its failure is handled so the router sees it.
+		// messages of the chat arriving from now on are merged into the history when it is cached
+		Flux<ChatMessage> load = this.transportRouter.observe(Transport.QUEUE, 
+				Mono.defer(() -> 
+				{
+					this.chatHistoryCache.startLoad(chatId);
+					return this.messageQueueService.convertAndSendMessageAndReceiveMessage(MessagingConfig.TO_SLACK_LOAD_CHAT_QUEUE, chatId);
+				}), 
+				loadChatMessagesResponse -> false)
+			.doOnSuccess(loadChatMessagesResponse -> 
+			{
+				if (loadChatMessagesResponse == null)
+				{
+					log.error("Received a null response from chatLoad queue, with chatId: {}", chatId);
+				}
+			})
+			.onErrorResume(throwable -> 
+			{
+				log.error(throwable.getMessage(), throwable);
+				return Mono.empty();
+			})
+			.flatMapMany(loadChatMessagesResponse -> 
+			{
+				// cache the history only if it was parsed to the end
+				List<ChatMessage> history = new ArrayList<ChatMessage>();
+				return ContactFormService.parseQueueResponseStream(chatId, loadChatMessagesResponse)
+					.doOnNext(history::add)
+					.doOnComplete(() -> this.chatHistoryCache.put(chatId, history));
+			})
+			.doFinally(signalType -> 
+			{
+				// before the load is removed, so the next load of the chat records its own appends
+				this.chatHistoryCache.endLoad(chatId);
+				this.inFlightLoads.remove(chatId, sharedLoad.get());
+			})
+			.replay()
+			.autoConnect();
+
+		sharedLoad.set(load);
+		return load;
+	}
+
+	/**
+	 * lazily parse a json array of chat messages from message queue.<br>
+	 * a message is parsed only when requested by the subscriber, so the first message is sent before the rest are parsed
+	 * @param chatId
+	 * @param response - json array of chat messages
+	 * @return
+	 */
+	static Flux<ChatMessage> parseQueueResponseStream(String chatId, String response)
+	{
+		return Flux.generate(() -> 
+		{
+			JsonReader jsonReader = SlackGson.newJsonReader(new StringReader(response));
+			if (jsonReader.peek() == JsonToken.BEGIN_ARRAY)
+			{
+				jsonReader.beginArray();
+			}
+			else
+			{
+				log.error("Received an empty response from chatLoad queue, with chatId: {}", chatId);
+				jsonReader.skipValue();
+			}
+
+			return jsonReader;
+		}, 
+		(JsonReader jsonReader, SynchronousSink<ChatMessage> sink) -> 
+		{
+			try
+			{
+				// read the next message of the array, or complete at the end of it
+				if (jsonReader.peek() == JsonToken.BEGIN_OBJECT)
+				{
+					sink.next(SlackGson.fromJson(jsonReader, ChatMessage.class));
+				}
+				else
+				{
+					sink.complete();
+				}
+			}
+			catch (IOException | JsonParseException e)
+			{
+				sink.error(e);
+			}
+
+			return jsonReader;
+		}, 
+		jsonReader -> 
+		{
+			try
+			{
+				jsonReader.close();
+			}
+			catch (IOException e)
+			{
+				log.error(e.getMessage(), e);
+			}
+		});
+	}
+
+	/**
+	 * parse response from message queue
+	 * @param request
+	 * @param response
+	 * @return
+	 */
+	static Mono<ChatMessage> parseQueueResponse(Object request, String response)
+	{
+		Mono<ChatMessage> result = null;
+
+		log.debug("Request: {}, Response: {}", request, response);
+		if (response == null)
+		{
+			log.error("Null response to queueStartChat with details {}", request);
+
+			if(request instanceof ChatMessage)
+			{
+				ChatMessage requestChatMessage = (ChatMessage)request;
+				requestChatMessage.setMessageId(MessageIdFlag.COMMUNICATION_ERROR.name());
+				result = Mono.just(requestChatMessage);
+			}
+			else if(request instanceof ContactDetails)
+			{
+				ContactDetails requestContactDetails = (ContactDetails)request;
+				result = Mono.just(new ChatMessage(
+					ChatIdFlag.COMMUNICATION_ERROR.name(),
+					MessageIdFlag.COMMUNICATION_ERROR.name(),
+					requestContactDetails.getName(),
+					requestContactDetails.getMessage(),
+					Instant.now(),
+					SenderType.USER));
+			}
+			else
+			{
+				log.error("Unimplemented request type for message send.");
+			}
+		}
+		else
+		{
+			result = Mono.just(SlackGson.fromJson(response, ChatMessage.class));
+		}
+
+		return result;
+	}
+}
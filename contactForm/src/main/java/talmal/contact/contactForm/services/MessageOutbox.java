@@ -0,0 +1,451 @@
+package talmal.contact.contactForm.services;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import talmal.contact.contactForm.config.MessagingConfig;
+import talmal.contact.contactForm.config.SlackGson;
+import talmal.contact.contactForm.models.context.ChatMessage;
+
+/**
+ * local durable outbox of requests to slack, so a message sent while the broker is unavailable is not lost.<br>
+ * a request is written to a memory mapped journal before it is published, even while the circuit breaker is open,
+ * and flagged as sent once its reply arrives, a null reply included.
+ * requests still pending after the reply timeout are replayed in order by a background drainer.<br>
+ * the journal is a ring buffer of records, its write and drain positions are kept in a small memory mapped index file.
+ * the files are forced to disk every syncInterval milliseconds, or on every write when syncInterval is 0.<br>
+ * delivery is at least once: a request whose reply was lost is published again
+ */
+@Service
+@Slf4j
+public class MessageOutbox
+{
+	// returned by append when the request is not recorded
+	public static final long NOT_RECORDED = -1;
+
+	// record: status, kind, attempts, unused, payload length, append time in milliseconds, payload
+	private static final int HEADER_SIZE = 16;
+	private static final int OFFSET_KIND = 1;
+	private static final int OFFSET_ATTEMPTS = 2;
+	private static final int OFFSET_LENGTH = 4;
+	private static final int OFFSET_TIME = 8;
+
+	private static final byte STATUS_PENDING = 1;
+	private static final byte STATUS_SENT = 2;
+	private static final byte STATUS_FAILED = 3;
+	// the rest of the journal is unused, the next record is at its start
+	private static final byte STATUS_WRAP = 4;
+
+	// index: write position, drain position
+	private static final int INDEX_SIZE = 16;
+	private static final int INDEX_WRITE_POSITION = 0;
+	private static final int INDEX_DRAIN_POSITION = 8;
+
+	/**
+	 * kind of request held by a record, and where it is published.<br>
+	 * a startChat request is not recorded, its reply carries the chat id the frontend needs to reach the chat
+	 */
+	public enum Kind
+	{
+		NEW_MESSAGE(MessagingConfig.TO_SLACK_NEW_MESSAGE_QUEUE, ChatMessage.class);
+
+		private final String routingKey;
+		private final Class<?> type;
+
+		Kind(String routingKey, Class<?> type)
+		{
+			this.routingKey = routingKey;
+			this.type = type;
+		}
+	}
+
+	private final boolean enabled;
+	private final long replayDelay;
+	private final int maxAttempts;
+	private final MessageQueueService messageQueueService;
+	private final ChatHistoryCache chatHistoryCache;
+
+	private FileChannel journalChannel;
+	private FileChannel indexChannel;
+	private MappedByteBuffer journal;
+	private MappedByteBuffer index;
+	private int capacity;
+	private int writePosition;
+	private int drainPosition;
+	private boolean syncEveryWrite;
+
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private Counter replayed;
+	private Counter failed;
+	private Counter full;
+	private Scheduler scheduler;
+
+	public MessageOutbox(MessageQueueService messageQueueService, ChatHistoryCache chatHistoryCache,
+		@Value(value = "${services.outbox.enabled:false}") boolean enabled,
+		@Value(value = "${services.outbox.directory:${java.io.tmpdir}/contact-form-outbox}") String directory,
+		@Value(value = "${services.outbox.capacity:67108864}") int capacity,
+		@Value(value = "${services.outbox.syncInterval:100}") long syncInterval,
+		@Value(value = "${services.outbox.drainInterval:1000}") long drainInterval,
+		@Value(value = "${services.outbox.replayDelay:${services.queue.replyTimeout:30000}}") long replayDelay,
+		@Value(value = "${services.outbox.maxAttempts:10}") int maxAttempts,
+		MeterRegistry meterRegistry) throws IOException
+	{
+		this.enabled = enabled;
+		this.replayDelay = replayDelay;
+		this.maxAttempts = maxAttempts;
+		this.messageQueueService = messageQueueService;
+		this.chatHistoryCache = chatHistoryCache;
+
+		if (enabled)
+		{
+			this.open(Paths.get(directory), capacity);
+			this.syncEveryWrite = syncInterval == 0;
+
+			this.replayed = meterRegistry.counter("contact.outbox.replayed");
+			this.failed = meterRegistry.counter("contact.outbox.failed");
+			this.full = meterRegistry.counter("contact.outbox.full");
+			Gauge.builder("contact.outbox.pending", this.pendingCount, AtomicInteger::get)
+				.description("requests in the outbox waiting for a reply").register(meterRegistry);
+
+			// replays block until their reply arrives, so the drainer and the sync each get their own thread,
+			// of a bounded elastic scheduler since blocking is not allowed on the threads of a parallel one
+			this.scheduler = Schedulers.newBoundedElastic(2, Integer.MAX_VALUE, "outbox");
+			this.scheduler.createWorker().schedulePeriodically(this::drain, drainInterval, drainInterval, TimeUnit.MILLISECONDS);
+			if (syncInterval > 0)
+			{
+				this.scheduler.createWorker().schedulePeriodically(this::sync, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * release resources, pending requests stay in the journal and are replayed on next start
+	 */
+	@PreDestroy
+	void close() throws IOException
+	{
+		if (this.enabled)
+		{
+			this.scheduler.dispose();
+			this.sync();
+			this.journalChannel.close();
+			this.indexChannel.close();
+		}
+	}
+
+	/**
+	 * record a request before it is published
+	 * @param kind
+	 * @param message - ChatMessage, as set by the kind
+	 * @return position of the record, to flag it as sent, or NOT_RECORDED if the outbox is disabled or full
+	 */
+	public long append(Kind kind, Object message)
+	{
+		if (!this.enabled)
+		{
+			return MessageOutbox.NOT_RECORDED;
+		}
+
+		byte[] payload = SlackGson.toJson(message).getBytes(StandardCharsets.UTF_8);
+		int recordSize = MessageOutbox.HEADER_SIZE + payload.length;
+
+		synchronized (this)
+		{
+			int position = this.reserve(recordSize);
+			if (position < 0)
+			{
+				this.full.increment();
+				log.error("Outbox is full, request is sent without a record: {}", message);
+				return MessageOutbox.NOT_RECORDED;
+			}
+
+			this.journal.put(position + MessageOutbox.OFFSET_KIND, (byte) kind.ordinal());
+			this.journal.put(position + MessageOutbox.OFFSET_ATTEMPTS, (byte) 0);
+			this.journal.putInt(position + MessageOutbox.OFFSET_LENGTH, payload.length);
+			this.journal.putLong(position + MessageOutbox.OFFSET_TIME, System.currentTimeMillis());
+			this.journal.put(position + MessageOutbox.HEADER_SIZE, payload);
+
+			// the status is written last, and the record is visible after a restart only once the index holds its end
+			this.journal.put(position, MessageOutbox.STATUS_PENDING);
+			this.writePosition = position + recordSize;
+			this.index.putLong(MessageOutbox.INDEX_WRITE_POSITION, this.writePosition);
+			this.pendingCount.incrementAndGet();
+
+			if (this.syncEveryWrite)
+			{
+				this.journal.force();
+				this.index.force();
+			}
+
+			return position;
+		}
+	}
+
+	/**
+	 * flag a recorded request as sent, it will not be replayed
+	 * @param position - position returned by append
+	 */
+	public void markSent(long position)
+	{
+		if (position != MessageOutbox.NOT_RECORDED)
+		{
+			synchronized (this)
+			{
+				this.setStatus((int) position, MessageOutbox.STATUS_SENT);
+			}
+		}
+	}
+
+	/**
+	 * @param position - position returned by append
+	 * @return true if the request is recorded and waits for a reply, it will be replayed by the drainer
+	 */
+	public boolean isPending(long position)
+	{
+		if (position == MessageOutbox.NOT_RECORDED)
+		{
+			return false;
+		}
+
+		synchronized (this)
+		{
+			return this.journal.get((int) position) == MessageOutbox.STATUS_PENDING;
+		}
+	}
+
+	/**
+	 * replay pending requests older than the reply timeout, in order.<br>
+	 * stops at the first request that fails again, it is retried on the next drain
+	 */
+	void drain()
+	{
+		try
+		{
+			int position = this.advanceDrainPosition();
+			while (position >= 0)
+			{
+				Kind kind;
+				Object message;
+				long appendTime;
+				synchronized (this)
+				{
+					appendTime = this.journal.getLong(position + MessageOutbox.OFFSET_TIME);
+					if (this.journal.get(position) != MessageOutbox.STATUS_PENDING || System.currentTimeMillis() - appendTime < this.replayDelay)
+					{
+						// the first publish of this request may still get its reply
+						return;
+					}
+
+					kind = Kind.values()[this.journal.get(position + MessageOutbox.OFFSET_KIND)];
+					message = SlackGson.fromJson(this.readPayload(position), kind.type);
+				}
+
+				if (!this.replay(position, kind, message))
+				{
+					return;
+				}
+
+				position = this.advanceDrainPosition();
+			}
+		}
+		catch (RuntimeException e)
+		{
+			log.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * force journal and index to disk
+	 */
+	void sync()
+	{
+		synchronized (this)
+		{
+			this.journal.force();
+			this.index.force();
+		}
+	}
+
+	private boolean replay(int position, Kind kind, Object message)
+	{
+		// a null reply is a reply, only a failed round trip is retried
+		boolean replied = false;
+		String response = null;
+		try
+		{
+			response = this.messageQueueService.convertAndSendMessageAndReceiveMessage(kind.routingKey, message).block();
+			replied = true;
+		}
+		catch (RuntimeException e)
+		{
+			log.debug("Replay of outbox request failed: {}", e.toString());
+		}
+
+		synchronized (this)
+		{
+			if (replied)
+			{
+				this.setStatus(position, MessageOutbox.STATUS_SENT);
+				this.replayed.increment();
+				log.info("Replayed {} request from outbox: {}", kind, message);
+				if (kind == Kind.NEW_MESSAGE && response != null)
+				{
+					this.chatHistoryCache.append(SlackGson.fromJson(response, ChatMessage.class));
+				}
+
+				return true;
+			}
+
+			int attempts = this.journal.get(position + MessageOutbox.OFFSET_ATTEMPTS) + 1;
+			this.journal.put(position + MessageOutbox.OFFSET_ATTEMPTS, (byte) attempts);
+			if (attempts >= this.maxAttempts)
+			{
+				// a request slack keeps rejecting must not block the requests after it
+				this.setStatus(position, MessageOutbox.STATUS_FAILED);
+				this.failed.increment();
+				log.error("Dropped outbox request after {} attempts: {}", attempts, message);
+				return true;
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * skip sent and failed records at the drain position, their space is reused by new records
+	 * @return position of the first pending record, or -1 if there is none
+	 */
+	private synchronized int advanceDrainPosition()
+	{
+		while (this.drainPosition != this.writePosition)
+		{
+			byte status = this.journal.get(this.drainPosition);
+			if (status == MessageOutbox.STATUS_WRAP)
+			{
+				this.drainPosition = 0;
+			}
+			else if (status == MessageOutbox.STATUS_PENDING)
+			{
+				break;
+			}
+			else
+			{
+				this.drainPosition += MessageOutbox.HEADER_SIZE + this.journal.getInt(this.drainPosition + MessageOutbox.OFFSET_LENGTH);
+			}
+		}
+
+		this.index.putLong(MessageOutbox.INDEX_DRAIN_POSITION, this.drainPosition);
+		return this.drainPosition != this.writePosition ? this.drainPosition : -1;
+	}
+
+	/**
+	 * find room for a record after the write position, wrapping to the start of the journal when the end is reached
+	 * @param recordSize
+	 * @return position of the record, or -1 if there is no room
+	 */
+	private int reserve(int recordSize)
+	{
+		// a record never ends at the drain position, so equal write and drain positions always mean an empty journal,
+		// and never ends at the end of the journal, so there is always room for the wrap marker
+		if (this.writePosition >= this.drainPosition)
+		{
+			if (this.writePosition + recordSize < this.capacity)
+			{
+				return this.writePosition;
+			}
+
+			if (recordSize < this.drainPosition)
+			{
+				this.journal.put(this.writePosition, MessageOutbox.STATUS_WRAP);
+				return 0;
+			}
+
+			return -1;
+		}
+
+		return this.writePosition + recordSize < this.drainPosition ? this.writePosition : -1;
+	}
+
+	private void setStatus(int position, byte status)
+	{
+		if (this.journal.get(position) == MessageOutbox.STATUS_PENDING)
+		{
+			this.journal.put(position, status);
+			this.pendingCount.decrementAndGet();
+			if (this.syncEveryWrite)
+			{
+				this.journal.force();
+			}
+		}
+	}
+
+	private String readPayload(int position)
+	{
+		byte[] payload = new byte[this.journal.getInt(position + MessageOutbox.OFFSET_LENGTH)];
+		this.journal.get(position + MessageOutbox.HEADER_SIZE, payload);
+		return new String(payload, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * map journal and index files, and count the pending records left by the previous run
+	 * @param directory
+	 * @param capacity
+	 * @throws IOException
+	 */
+	private void open(Path directory, int capacity) throws IOException
+	{
+		Files.createDirectories(directory);
+		this.journalChannel = FileChannel.open(directory.resolve("outbox.journal"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.indexChannel = FileChannel.open(directory.resolve("outbox.index"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		// an existing journal keeps its size, its records are positioned for it
+		this.capacity = this.journalChannel.size() > 0 ? (int) this.journalChannel.size() : capacity;
+		this.journal = this.journalChannel.map(MapMode.READ_WRITE, 0, this.capacity);
+		this.index = this.indexChannel.map(MapMode.READ_WRITE, 0, MessageOutbox.INDEX_SIZE);
+		this.writePosition = (int) this.index.getLong(MessageOutbox.INDEX_WRITE_POSITION);
+		this.drainPosition = (int) this.index.getLong(MessageOutbox.INDEX_DRAIN_POSITION);
+
+		int position = this.drainPosition;
+		while (position != this.writePosition)
+		{
+			byte status = this.journal.get(position);
+			if (status == MessageOutbox.STATUS_WRAP)
+			{
+				position = 0;
+				continue;
+			}
+
+			if (status == MessageOutbox.STATUS_PENDING)
+			{
+				this.pendingCount.incrementAndGet();
+			}
+
+			position += MessageOutbox.HEADER_SIZE + this.journal.getInt(position + MessageOutbox.OFFSET_LENGTH);
+		}
+
+		if (this.pendingCount.get() > 0)
+		{
+			log.warn("Outbox holds {} requests of the previous run, they will be replayed", this.pendingCount.get());
+		}
+	}
+}
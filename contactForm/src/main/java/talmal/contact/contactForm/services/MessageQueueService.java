@@ -1,49 +1,85 @@
-package talmal.contact.contactForm.services;
-
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Service;
-
-import talmal.contact.contactForm.config.SlackGson;
-
-@Service
-public class MessageQueueService
-{
-	@Autowired
-	private RabbitTemplate rabbitTemplate;
-
-	/**
-	 * send message to queue named routingKey 
-	 * @param routingKey - the queue to send message to 
-	 * @param message - object message to send (will be converted to json)
-	 */
-	public void convertAndSendMessage(String routingKey, Object message)
-	{
-		this.rabbitTemplate.convertAndSend(routingKey, SlackGson.toJson(message));
-	}
-	
-	/**
-	 * send message to queue named routingKey, and wait for response as json string 
-	 * @param routingKey - the queue to send message to 
-	 * @param message - object message to send (will be converted to json)
-	 * @return Object of json String or null
-	 */
-	public Object convertAndSendMessageAndReceiveMessage(String routingKey, Object message)
-	{
-		return this.rabbitTemplate.convertSendAndReceive(routingKey, SlackGson.toJson(message));
-	}
-}
-
-
-
-
-
-
-
-
-
-
-
-
-
-
+package talmal.contact.contactForm.services;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate.RabbitConverterFuture;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import talmal.contact.contactForm.config.ThreadingConfig;
+
+@Service
+public class MessageQueueService
+{
+	@Autowired
+	private RabbitTemplate rabbitTemplate;
+
+	@Autowired
+	private AsyncRabbitTemplate asyncRabbitTemplate;
+
+	@Autowired
+	private ContactFormMetrics contactFormMetrics;
+
+	// bounds the requests waiting for a reply, so a slow consumer can not pile up unbounded work
+	private final Semaphore inFlightRequests;
+
+	// runs the blocking publish of a request, null to publish on the subscribing thread
+	private final Scheduler sendScheduler;
+
+	public MessageQueueService(@Value(value = "${services.queue.maxInFlight:256}") int maxInFlight, ThreadingConfig threadingConfig)
+	{
+		this.inFlightRequests = new Semaphore(maxInFlight);
+		this.sendScheduler = threadingConfig.isVirtual() ? Schedulers.fromExecutor(threadingConfig.getVirtualThreadExecutor()) : null;
+	}
+
+	/**
+	 * send message to queue named routingKey 
+	 * @param routingKey - the queue to send message to 
+	 * @param message - object message to send (will be converted to json by the message converter)
+	 */
+	public void convertAndSendMessage(String routingKey, Object message)
+	{
+		this.rabbitTemplate.convertAndSend(routingKey, message);
+	}
+	
+	/**
+	 * send message to queue named routingKey, and receive the response as json string without blocking.<br>
+	 * nothing is sent until the result is subscribed, replies are correlated by correlation-id over a shared reply queue
+	 * @param routingKey - the queue to send message to 
+	 * @param message - object message to send (will be converted to json by the message converter)
+	 * @return Mono of json String, empty if the reply is null, or an error if the reply timed out or too many requests are in flight
+	 */
+	public Mono<String> convertAndSendMessageAndReceiveMessage(String routingKey, Object message)
+	{
+		Mono<String> reply = Mono.defer(() ->
+		{
+			if (!this.inFlightRequests.tryAcquire())
+			{
+				return Mono.error(new RejectedExecutionException("Too many requests waiting for reply from " + routingKey));
+			}
+
+			RabbitConverterFuture<String> future;
+			try
+			{
+				future = this.asyncRabbitTemplate.convertSendAndReceive(routingKey, message);
+			}
+			catch (RuntimeException e)
+			{
+				this.inFlightRequests.release();
+				return Mono.error(e);
+			}
+
+			// cancelling the subscription (e.g. by the circuit breaker time limiter) cancels the pending reply
+			return Mono.fromFuture(future.completable()).doFinally(signalType -> this.inFlightRequests.release());
+		});
+
+		return this.contactFormMetrics.timeRoundTrip(routingKey, this.sendScheduler != null ? reply.subscribeOn(this.sendScheduler) : reply);
+	}
+}
@@ -0,0 +1,13 @@
+package talmal.contact.contactForm.services;
+
+/**
+ * transport of requests to the message-sender service
+ */
+public enum Transport
+{
+	// request/reply over RabbitMQ
+	QUEUE,
+
+	// http call through the load balanced web client
+	HTTP
+}
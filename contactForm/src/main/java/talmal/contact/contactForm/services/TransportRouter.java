@@ -0,0 +1,203 @@
+package talmal.contact.contactForm.services;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.circuitbreaker.resilience4j.ReactiveResilience4JCircuitBreakerFactory;
+import org.springframework.stereotype.Component;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * chooses the transport of each request to the message-sender service.<br>
+ * latency and error rate of each transport are tracked as exponentially weighted moving averages.
+ * a transport is degraded when its error rate or latency is above the limits, or when its circuit breaker is open.<br>
+ * requests go to the configured transport unless it is degraded and the other one is not.
+ * every probeInterval one request still goes to the degraded transport, so traffic returns to it once it recovers
+ */
+@Component
+@Slf4j
+public class TransportRouter
+{
+	private static final String TAG_TRANSPORT = "transport";
+
+	private final boolean enabled;
+	private final double maxErrorRate;
+	private final long maxLatency;
+	private final long probeInterval;
+	private final double weight;
+	private final CircuitBreakerRegistry circuitBreakerRegistry;
+	private final Map<Transport, TransportHealth> health;
+
+	public TransportRouter(
+		@Value(value = "${services.transport.adaptive.enabled:false}") boolean enabled,
+		@Value(value = "${services.transport.adaptive.maxErrorRate:0.2}") double maxErrorRate,
+		@Value(value = "${services.transport.adaptive.maxLatency:2000}") long maxLatency,
+		@Value(value = "${services.transport.adaptive.probeInterval:5000}") long probeInterval,
+		@Value(value = "${services.transport.adaptive.weight:0.2}") double weight,
+		ReactiveResilience4JCircuitBreakerFactory circuitBreakerFactory,
+		MeterRegistry meterRegistry)
+	{
+		this.enabled = enabled;
+		this.maxErrorRate = maxErrorRate;
+		this.maxLatency = TimeUnit.MILLISECONDS.toNanos(maxLatency);
+		this.probeInterval = TimeUnit.MILLISECONDS.toNanos(probeInterval);
+		this.weight = weight;
+		this.circuitBreakerRegistry = circuitBreakerFactory.getCircuitBreakerRegistry();
+
+		this.health = new EnumMap<Transport, TransportHealth>(Transport.class);
+		for (Transport transport : Transport.values())
+		{
+			TransportHealth transportHealth = new TransportHealth();
+			this.health.put(transport, transportHealth);
+
+			Gauge.builder("contact.transport.latency", transportHealth, TransportHealth::getLatency)
+				.description("moving average of request latency in nanoseconds").tag(TransportRouter.TAG_TRANSPORT, transport.name()).register(meterRegistry);
+			Gauge.builder("contact.transport.error.rate", transportHealth, TransportHealth::getErrorRate)
+				.description("moving average of failed requests").tag(TransportRouter.TAG_TRANSPORT, transport.name()).register(meterRegistry);
+			Gauge.builder("contact.transport.degraded", this, router -> router.isDegraded(transport) ? 1 : 0)
+				.description("1 while the transport is degraded").tag(TransportRouter.TAG_TRANSPORT, transport.name()).register(meterRegistry);
+		}
+	}
+
+	/**
+	 * @param configured - transport set for the endpoint
+	 * @return transport to send the next request with
+	 */
+	public Transport route(Transport configured)
+	{
+		if (!this.enabled || !this.isDegraded(configured))
+		{
+			return configured;
+		}
+
+		Transport other = configured == Transport.QUEUE ? Transport.HTTP : Transport.QUEUE;
+		if (this.isDegraded(other) || this.health.get(configured).tryProbe(this.probeInterval))
+		{
+			return configured;
+		}
+
+		return other;
+	}
+
+	/**
+	 * track latency and outcome of a request
+	 * @param transport - transport the request was sent with
+	 * @param request
+	 * @param isFailure - true for replies reporting a failure, e.g. the fallback of the circuit breaker
+	 * @return request, tracked from subscription until it terminates
+	 */
+	public <T> Mono<T> observe(Transport transport, Mono<T> request, Predicate<T> isFailure)
+	{
+		return Mono.defer(() ->
+		{
+			long startTime = System.nanoTime();
+			boolean[] failed = new boolean[1];
+			return request
+				.doOnNext(value -> failed[0] = isFailure.test(value))
+				.doOnError(throwable -> failed[0] = true)
+				.doFinally(signalType -> this.record(transport, signalType, startTime, failed[0]));
+		});
+	}
+
+	/**
+	 * track latency and outcome of a request with a streamed reply, until the last message
+	 * @param transport - transport the request was sent with
+	 * @param request
+	 * @return request, tracked from subscription until it terminates
+	 */
+	public <T> Flux<T> observe(Transport transport, Flux<T> request)
+	{
+		return Flux.defer(() ->
+		{
+			long startTime = System.nanoTime();
+			boolean[] failed = new boolean[1];
+			return request
+				.doOnError(throwable -> failed[0] = true)
+				.doFinally(signalType -> this.record(transport, signalType, startTime, failed[0]));
+		});
+	}
+
+	/**
+	 * @param transport
+	 * @return true if the transport should not get requests other than probes
+	 */
+	public boolean isDegraded(Transport transport)
+	{
+		TransportHealth transportHealth = this.health.get(transport);
+		return transportHealth.getErrorRate() > this.maxErrorRate
+			|| transportHealth.getLatency() > this.maxLatency
+			|| this.isCircuitOpen(transport == Transport.QUEUE ? ContactFormService.CIRCUIT_BREAKER_ID_TO_MESSAGE_SENDER 
+				: ContactFormService.CIRCUIT_BREAKER_ID_TO_MESSAGE_SENDER_HTTP);
+	}
+
+	private boolean isCircuitOpen(String circuitBreakerId)
+	{
+		CircuitBreaker.State state = this.circuitBreakerRegistry.find(circuitBreakerId)
+			.map(CircuitBreaker::getState)
+			.orElse(CircuitBreaker.State.CLOSED);
+		return state == CircuitBreaker.State.OPEN || state == CircuitBreaker.State.FORCED_OPEN;
+	}
+
+	private void record(Transport transport, SignalType signalType, long startTime, boolean failed)
+	{
+		// a request cancelled by its caller says nothing about the transport
+		if (signalType != SignalType.CANCEL)
+		{
+			boolean wasDegraded = this.isDegraded(transport);
+			this.health.get(transport).update(System.nanoTime() - startTime, failed, this.weight);
+			if (wasDegraded != this.isDegraded(transport))
+			{
+				log.warn("Transport {} is {}", transport, wasDegraded ? "recovered" : "degraded");
+			}
+		}
+	}
+
+	/**
+	 * moving averages of a single transport
+	 */
+	private static class TransportHealth
+	{
+		private double latency;
+		private double errorRate;
+		private final AtomicLong lastProbe = new AtomicLong(System.nanoTime());
+
+		private synchronized void update(long requestLatency, boolean failed, double weight)
+		{
+			this.latency += weight * (requestLatency - this.latency);
+			this.errorRate += weight * ((failed ? 1 : 0) - this.errorRate);
+		}
+
+		private synchronized double getLatency()
+		{
+			return this.latency;
+		}
+
+		private synchronized double getErrorRate()
+		{
+			return this.errorRate;
+		}
+
+		/**
+		 * @param probeInterval
+		 * @return true for a single caller once every probeInterval
+		 */
+		private boolean tryProbe(long probeInterval)
+		{
+			long lastProbeTime = this.lastProbe.get();
+			long now = System.nanoTime();
+			return now - lastProbeTime >= probeInterval && this.lastProbe.compareAndSet(lastProbeTime, now);
+		}
+	}
+}
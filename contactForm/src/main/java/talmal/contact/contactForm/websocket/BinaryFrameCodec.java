@@ -0,0 +1,218 @@
+package talmal.contact.contactForm.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.SenderType;
+import talmal.contact.contactForm.models.jsonElements.DecodeResult;
+import talmal.contact.contactForm.models.jsonElements.DecodeResult.DecodeError;
+
+/**
+ * compact binary framing of chat messages, used by sessions that negotiated SUBPROTOCOL at handshake.<br>
+ * a frame is the version byte followed by messageId, name, message, date and senderType:
+ * strings are a varint of length + 1 (0 for null) followed by utf-8 bytes,
+ * date is a zigzag varint of epoch seconds (the precision of InstantSerializer) and senderType a varint of its ordinal,
+ * both shifted by one so 0 marks a missing field.<br>
+ * the chat id is not framed, a session is bound to a single chat at handshake
+ */
+public class BinaryFrameCodec
+{
+	public static final String SUBPROTOCOL = "contact.binary.v1";
+
+	private static final byte VERSION = 1;
+	private static final SenderType[] SENDER_TYPES = SenderType.values();
+
+	private BinaryFrameCodec()
+	{
+	}
+
+	/**
+	 * @param chatMessage
+	 * @return binary frame of the chat message, without its chat id
+	 */
+	public static byte[] encode(ChatMessage chatMessage)
+	{
+		byte[] messageId = BinaryFrameCodec.toBytes(chatMessage.getMessageId());
+		byte[] name = BinaryFrameCodec.toBytes(chatMessage.getName());
+		byte[] message = BinaryFrameCodec.toBytes(chatMessage.getMessage());
+		long date = chatMessage.getDate() != null ? BinaryFrameCodec.zigzag(chatMessage.getDate().getEpochSecond()) : 0;
+		long senderType = chatMessage.getSenderType() != null ? chatMessage.getSenderType().ordinal() + 1L : 0;
+
+		// frame is sized exactly, so it is written without copying
+		ByteBuffer frame = ByteBuffer.allocate(1
+			+ BinaryFrameCodec.sizeOf(messageId) + BinaryFrameCodec.sizeOf(name) + BinaryFrameCodec.sizeOf(message)
+			+ BinaryFrameCodec.varintSize(date) + BinaryFrameCodec.varintSize(senderType));
+		frame.put(BinaryFrameCodec.VERSION);
+		BinaryFrameCodec.putBytes(frame, messageId);
+		BinaryFrameCodec.putBytes(frame, name);
+		BinaryFrameCodec.putBytes(frame, message);
+		BinaryFrameCodec.putVarint(frame, date);
+		BinaryFrameCodec.putVarint(frame, senderType);
+		return frame.array();
+	}
+
+	/**
+	 * @param payload - binary web socket frame payload, its position is not changed
+	 * @param chatId - chat id the session is bound to
+	 * @return decoded chat message, or error if the frame is not a valid chat message
+	 */
+	public static DecodeResult<ChatMessage> decodeChatMessage(ByteBuffer payload, String chatId)
+	{
+		ByteBuffer frame = payload.duplicate();
+		try
+		{
+			byte version = frame.get();
+			if (version != BinaryFrameCodec.VERSION)
+			{
+				return DecodeResult.invalid(DecodeError.MALFORMED_FRAME, "unsupported version " + version);
+			}
+
+			ChatMessage chatMessage = new ChatMessage();
+			chatMessage.setChatId(chatId);
+			chatMessage.setMessageId(BinaryFrameCodec.getString(frame));
+			chatMessage.setName(BinaryFrameCodec.getString(frame));
+			chatMessage.setMessage(BinaryFrameCodec.getString(frame));
+
+			long date = BinaryFrameCodec.getVarint(frame);
+			long senderType = BinaryFrameCodec.getVarint(frame);
+			if (frame.hasRemaining())
+			{
+				return DecodeResult.invalid(DecodeError.MALFORMED_FRAME, "unexpected content at " + frame.position());
+			}
+
+			if (date == 0)
+			{
+				return DecodeResult.invalid(DecodeError.MISSING_FIELD, "date");
+			}
+
+			if (senderType == 0)
+			{
+				return DecodeResult.invalid(DecodeError.MISSING_FIELD, "senderType");
+			}
+
+			// varints are unsigned, a value with its top bit set reads as negative
+			if (senderType < 0 || senderType > BinaryFrameCodec.SENDER_TYPES.length)
+			{
+				return DecodeResult.invalid(DecodeError.INVALID_SENDER_TYPE, Long.toUnsignedString(senderType - 1));
+			}
+
+			long epochSecond = BinaryFrameCodec.unzigzag(date);
+			if (epochSecond < Instant.MIN.getEpochSecond() || epochSecond > Instant.MAX.getEpochSecond())
+			{
+				return DecodeResult.invalid(DecodeError.INVALID_DATE, String.valueOf(epochSecond));
+			}
+
+			chatMessage.setDate(Instant.ofEpochSecond(epochSecond));
+			chatMessage.setSenderType(BinaryFrameCodec.SENDER_TYPES[(int) senderType - 1]);
+			return DecodeResult.valid(chatMessage);
+		}
+		catch (RuntimeException e)
+		{
+			// underflow, a length out of the frame, or a varint too long
+			return DecodeResult.invalid(DecodeError.MALFORMED_FRAME, e.getClass().getSimpleName() + " at " + frame.position());
+		}
+	}
+
+	private static byte[] toBytes(String value)
+	{
+		return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+	}
+
+	private static int sizeOf(byte[] value)
+	{
+		return value != null ? BinaryFrameCodec.varintSize(value.length + 1) + value.length : 1;
+	}
+
+	private static void putBytes(ByteBuffer frame, byte[] value)
+	{
+		if (value == null)
+		{
+			frame.put((byte) 0);
+		}
+		else
+		{
+			BinaryFrameCodec.putVarint(frame, value.length + 1);
+			frame.put(value);
+		}
+	}
+
+	private static String getString(ByteBuffer frame)
+	{
+		long length = BinaryFrameCodec.getVarint(frame) - 1;
+		if (length == -1)
+		{
+			return null;
+		}
+
+		// a length with the top bit of the varint set reads as negative
+		if (length < 0 || length > frame.remaining())
+		{
+			throw new IndexOutOfBoundsException("length " + Long.toUnsignedString(length));
+		}
+
+		// a direct buffer of the reactive stack has no array to decode from
+		if (!frame.hasArray())
+		{
+			byte[] value = new byte[(int) length];
+			frame.get(value);
+			return new String(value, StandardCharsets.UTF_8);
+		}
+
+		String value = new String(frame.array(), frame.arrayOffset() + frame.position(), (int) length, StandardCharsets.UTF_8);
+		frame.position(frame.position() + (int) length);
+		return value;
+	}
+
+	private static int varintSize(long value)
+	{
+		int size = 1;
+		while ((value & ~0x7FL) != 0)
+		{
+			value >>>= 7;
+			size++;
+		}
+
+		return size;
+	}
+
+	private static void putVarint(ByteBuffer frame, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			frame.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+
+		frame.put((byte) value);
+	}
+
+	private static long getVarint(ByteBuffer frame)
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			byte b = frame.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+
+		throw new IllegalArgumentException("varint too long");
+	}
+
+	private static long zigzag(long value)
+	{
+		// dates before the epoch stay short
+		return ((value << 1) ^ (value >> 63)) + 1;
+	}
+
+	private static long unzigzag(long value)
+	{
+		long zigzag = value - 1;
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+}
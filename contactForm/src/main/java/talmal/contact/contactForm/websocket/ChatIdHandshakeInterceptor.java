@@ -0,0 +1,54 @@
+package talmal.contact.contactForm.websocket;
+
+import java.util.Map;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.support.HttpSessionHandshakeInterceptor;
+
+import lombok.extern.slf4j.Slf4j;
+import talmal.contact.contactForm.models.context.ResumeCursor;
+
+/**
+ * initial Request/Handshake interceptor.<br>
+ * binds the chat id and the resume cursor of the url query to the session attributes once, before the upgrade,
+ * a handshake without a valid chat id is rejected with 400 and no session is opened
+ */
+@Slf4j
+public class ChatIdHandshakeInterceptor extends HttpSessionHandshakeInterceptor
+{
+	private final String queryKeyChatId;
+	private final String queryKeyLastMessageId;
+	private final String queryKeySince;
+
+	public ChatIdHandshakeInterceptor(String queryKeyChatId, String queryKeyLastMessageId, String queryKeySince)
+	{
+		this.queryKeyChatId = queryKeyChatId;
+		this.queryKeyLastMessageId = queryKeyLastMessageId;
+		this.queryKeySince = queryKeySince;
+	}
+
+	@Override
+	public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Map<String, Object> attributes) throws Exception
+	{
+		String rawQuery = request.getURI().getRawQuery();
+		String chatId = HandshakeQuery.getChatId(rawQuery, this.queryKeyChatId);
+		if (chatId == null)
+		{
+			log.debug("Rejected handshake without a valid chat id: {}", request.getURI());
+			response.setStatusCode(HttpStatus.BAD_REQUEST);
+			return false;
+		}
+
+		attributes.put(WebSocketSessionRegistry.ATTRIBUTE_CHAT_ID, chatId);
+		ResumeCursor resumeCursor = HandshakeQuery.getResumeCursor(rawQuery, this.queryKeyLastMessageId, this.queryKeySince);
+		if (resumeCursor != null)
+		{
+			attributes.put(WebSocketSessionRegistry.ATTRIBUTE_RESUME_CURSOR, resumeCursor);
+		}
+
+		return super.beforeHandshake(request, response, wsHandler, attributes);
+	}
+}
@@ -0,0 +1,47 @@
+package talmal.contact.contactForm.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+/**
+ * handshake handler that negotiates permessage-deflate only when compression is enabled.<br>
+ * the container compresses every message of a session that negotiated it, whatever its size,
+ * so compression is set per endpoint and not per message
+ */
+public class CompressionHandshakeHandler extends DefaultHandshakeHandler
+{
+	public static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+	private final boolean compressionEnabled;
+
+	public CompressionHandshakeHandler(boolean compressionEnabled)
+	{
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	@Override
+	protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request, List<WebSocketExtension> requestedExtensions,
+		List<WebSocketExtension> supportedExtensions)
+	{
+		List<WebSocketExtension> result = super.filterRequestedExtensions(request, requestedExtensions, supportedExtensions);
+		if (this.compressionEnabled)
+		{
+			return result;
+		}
+
+		List<WebSocketExtension> filtered = new ArrayList<WebSocketExtension>(result.size());
+		for (WebSocketExtension extension : result)
+		{
+			if (!CompressionHandshakeHandler.PERMESSAGE_DEFLATE.equalsIgnoreCase(extension.getName()))
+			{
+				filtered.add(extension);
+			}
+		}
+
+		return filtered;
+	}
+}
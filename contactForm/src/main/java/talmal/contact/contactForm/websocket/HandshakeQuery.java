@@ -0,0 +1,147 @@
+package talmal.contact.contactForm.websocket;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+import talmal.contact.contactForm.models.context.ResumeCursor;
+
+/**
+ * parser of the web socket handshake query string.<br>
+ * scans the raw query in place for a single parameter, the only allocation is the returned value,
+ * and reports a malformed query as a missing value instead of throwing
+ */
+public class HandshakeQuery
+{
+	// slack chat and message ids are made of channel id and timestamps, anything longer is not an id
+	private static final int MAX_ID_LENGTH = 128;
+
+	private HandshakeQuery()
+	{
+	}
+
+	/**
+	 * @param rawQuery - query string as received, not decoded, may be null
+	 * @param key - parameter name
+	 * @return chat id of the parameter, or null if it is missing or not a valid chat id
+	 */
+	public static String getChatId(String rawQuery, String key)
+	{
+		String chatId = HandshakeQuery.getValue(rawQuery, key);
+		return chatId != null && HandshakeQuery.isValidId(chatId) ? chatId : null;
+	}
+
+	/**
+	 * @param rawQuery - query string as received, not decoded, may be null
+	 * @param keyLastMessageId - parameter name of the last message id seen by the frontend
+	 * @param keySince - parameter name of the date of the last message seen by the frontend, ISO-8601
+	 * @return cursor to resume the chat from, or null if neither parameter is valid
+	 */
+	public static ResumeCursor getResumeCursor(String rawQuery, String keyLastMessageId, String keySince)
+	{
+		String lastMessageId = HandshakeQuery.getValue(rawQuery, keyLastMessageId);
+		if (lastMessageId != null && !HandshakeQuery.isValidId(lastMessageId))
+		{
+			lastMessageId = null;
+		}
+
+		Instant since = null;
+		String sinceValue = HandshakeQuery.getValue(rawQuery, keySince);
+		if (sinceValue != null)
+		{
+			try
+			{
+				since = Instant.parse(sinceValue);
+			}
+			catch (DateTimeParseException e)
+			{
+				// an unreadable cursor resends the whole history
+			}
+		}
+
+		return lastMessageId != null || since != null ? new ResumeCursor(lastMessageId, since) : null;
+	}
+
+	/**
+	 * @param rawQuery - query string as received, not decoded, may be null
+	 * @param key - parameter name
+	 * @return decoded value of the first parameter named key, or null if it is missing, has no value or can not be decoded
+	 */
+	public static String getValue(String rawQuery, String key)
+	{
+		if (rawQuery == null || key == null || key.isEmpty())
+		{
+			return null;
+		}
+
+		int length = rawQuery.length();
+		int keyLength = key.length();
+		int start = 0;
+		while (start < length)
+		{
+			int end = rawQuery.indexOf('&', start);
+			if (end < 0)
+			{
+				end = length;
+			}
+
+			// parameter is key=value, a parameter without '=' is skipped
+			int valueStart = start + keyLength + 1;
+			if (valueStart <= end && rawQuery.charAt(valueStart - 1) == '=' && rawQuery.startsWith(key, start))
+			{
+				return valueStart < end ? HandshakeQuery.decode(rawQuery, valueStart, end) : null;
+			}
+
+			start = end + 1;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param id - chat id or message id
+	 * @return true if id is made of letters, digits, '.', '-' and '_' only
+	 */
+	public static boolean isValidId(String id)
+	{
+		int length = id.length();
+		if (length == 0 || length > HandshakeQuery.MAX_ID_LENGTH)
+		{
+			return false;
+		}
+
+		for (int index = 0; index < length; index++)
+		{
+			char c = id.charAt(index);
+			if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '_'))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static String decode(String rawQuery, int start, int end)
+	{
+		// values are rarely encoded, decode only when needed
+		for (int index = start; index < end; index++)
+		{
+			char c = rawQuery.charAt(index);
+			if (c == '%' || c == '+')
+			{
+				try
+				{
+					return URLDecoder.decode(rawQuery.substring(start, end), StandardCharsets.UTF_8);
+				}
+				catch (IllegalArgumentException e)
+				{
+					return null;
+				}
+			}
+		}
+
+		return rawQuery.substring(start, end);
+	}
+}
@@ -0,0 +1,266 @@
+package talmal.contact.contactForm.websocket;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * web socket session with an asynchronous outbound queue.<br>
+ * sendMessage only buffers the message and returns, messages are written in order by a single drain task on the executor,
+ * so one slow browser can not block the thread sending to it.<br>
+ * close is written by the drain task too, after the messages already buffered, so it never races a write in progress.<br>
+ * an evicted session is closed on the executor as well, never on the thread sending to it
+ */
+@Slf4j
+public class OutboundWebSocketSession extends WebSocketSessionDecorator
+{
+	/**
+	 * what to do when the buffer of a session exceeds its size limit
+	 */
+	public enum OverflowPolicy
+	{
+		DROP_OLDEST, CLOSE;
+	}
+
+	private final Executor executor;
+	private final int sendTimeLimit;
+	private final int bufferSizeLimit;
+	private final OverflowPolicy overflowPolicy;
+	private final Counter droppedMessages;
+	private final Counter evictedSessions;
+
+	private final Queue<WebSocketMessage<?>> buffer;
+	private final AtomicInteger bufferSize;
+	private final AtomicInteger queueDepth;
+	private final AtomicInteger drainRequests;
+	private final AtomicBoolean limitExceeded;
+	private final AtomicReference<CloseStatus> closeStatus;
+	private final AtomicBoolean closed;
+
+	// time the current write started, 0 when no write is in progress
+	private volatile long sendStartTime;
+
+	public OutboundWebSocketSession(WebSocketSession delegate, Executor executor, int sendTimeLimit, int bufferSizeLimit, OverflowPolicy overflowPolicy,
+		Counter droppedMessages, Counter evictedSessions)
+	{
+		super(delegate);
+		this.executor = executor;
+		this.sendTimeLimit = sendTimeLimit;
+		this.bufferSizeLimit = bufferSizeLimit;
+		this.overflowPolicy = overflowPolicy;
+		this.droppedMessages = droppedMessages;
+		this.evictedSessions = evictedSessions;
+
+		this.buffer = new ConcurrentLinkedQueue<WebSocketMessage<?>>();
+		this.bufferSize = new AtomicInteger();
+		this.queueDepth = new AtomicInteger();
+		this.drainRequests = new AtomicInteger();
+		this.limitExceeded = new AtomicBoolean();
+		this.closeStatus = new AtomicReference<CloseStatus>();
+		this.closed = new AtomicBoolean();
+	}
+
+	/**
+	 * @return number of messages waiting to be written
+	 */
+	public int getQueueDepth()
+	{
+		return this.queueDepth.get();
+	}
+
+	/**
+	 * @return number of payload bytes waiting to be written
+	 */
+	public int getBufferSize()
+	{
+		return this.bufferSize.get();
+	}
+
+	/**
+	 * buffer message to be written by the drain task, never blocks on the network
+	 */
+	@Override
+	public void sendMessage(WebSocketMessage<?> message) throws IOException
+	{
+		if (this.limitExceeded.get() || this.closeStatus.get() != null || !this.isOpen())
+		{
+			this.droppedMessages.increment();
+			return;
+		}
+
+		// the previous write is stuck, the browser stopped reading
+		long startTime = this.sendStartTime;
+		if (startTime != 0 && System.currentTimeMillis() - startTime > this.sendTimeLimit)
+		{
+			this.evict(String.format("Send time %d (ms) for session '%s' exceeded the allowed limit %d", System.currentTimeMillis() - startTime, this.getId(), this.sendTimeLimit));
+			return;
+		}
+
+		this.buffer.add(message);
+		this.bufferSize.addAndGet(message.getPayloadLength());
+		this.queueDepth.incrementAndGet();
+
+		while (this.bufferSize.get() > this.bufferSizeLimit)
+		{
+			if (this.overflowPolicy == OverflowPolicy.CLOSE)
+			{
+				this.evict(String.format("Buffer size %d bytes for session '%s' exceeded the allowed limit %d", this.bufferSize.get(), this.getId(), this.bufferSizeLimit));
+				return;
+			}
+
+			WebSocketMessage<?> oldestMessage = this.buffer.poll();
+			if (oldestMessage == null)
+			{
+				break;
+			}
+
+			this.bufferSize.addAndGet(-oldestMessage.getPayloadLength());
+			this.queueDepth.decrementAndGet();
+			this.droppedMessages.increment();
+			log.debug("Dropped oldest message of slow session {}", this.getId());
+		}
+
+		this.requestDrain();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.close(CloseStatus.NORMAL);
+	}
+
+	/**
+	 * close the session once the messages already buffered are written, never blocks on the network
+	 */
+	@Override
+	public void close(CloseStatus status) throws IOException
+	{
+		if (this.closeStatus.compareAndSet(null, status))
+		{
+			this.requestDrain();
+		}
+	}
+
+	/**
+	 * start a drain task, unless one is already running for this session
+	 */
+	private void requestDrain()
+	{
+		if (this.drainRequests.getAndIncrement() == 0)
+		{
+			try
+			{
+				this.executor.execute(this::drain);
+			}
+			catch (RejectedExecutionException e)
+			{
+				this.drainRequests.set(0);
+				this.evict("Outbound executor rejected session " + this.getId());
+			}
+		}
+	}
+
+	/**
+	 * write buffered messages in order, until no more messages are requested
+	 */
+	private void drain()
+	{
+		int missed = 1;
+		do
+		{
+			WebSocketMessage<?> message;
+			while ((message = this.buffer.poll()) != null)
+			{
+				this.bufferSize.addAndGet(-message.getPayloadLength());
+				this.queueDepth.decrementAndGet();
+				if (this.limitExceeded.get() || !this.isOpen())
+				{
+					continue;
+				}
+
+				this.sendStartTime = System.currentTimeMillis();
+				try
+				{
+					this.getDelegate().sendMessage(message);
+				}
+				catch (IOException | RuntimeException e)
+				{
+					log.error(e.getMessage(), e);
+				}
+				finally
+				{
+					this.sendStartTime = 0;
+				}
+			}
+
+			CloseStatus status = this.closeStatus.get();
+			if (status != null && this.closed.compareAndSet(false, true))
+			{
+				try
+				{
+					this.getDelegate().close(status);
+				}
+				catch (IOException | RuntimeException e)
+				{
+					log.error(e.getMessage(), e);
+				}
+			}
+
+			missed = this.drainRequests.addAndGet(-missed);
+		}
+		while (missed != 0);
+	}
+
+	/**
+	 * close a session that can not keep up, the container then removes it from the registry.<br>
+	 * the close runs on the executor, a stuck write would otherwise block the thread sending to this session
+	 * @param reason
+	 */
+	private void evict(String reason)
+	{
+		if (this.limitExceeded.compareAndSet(false, true))
+		{
+			log.error(reason);
+			this.evictedSessions.increment();
+			try
+			{
+				this.executor.execute(this::closeNotReliable);
+			}
+			catch (RejectedExecutionException e)
+			{
+				this.closeNotReliable();
+			}
+		}
+	}
+
+	/**
+	 * close the session once, whichever of the drain task and the eviction comes first
+	 */
+	private void closeNotReliable()
+	{
+		if (this.closed.compareAndSet(false, true))
+		{
+			try
+			{
+				this.getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+			}
+			catch (IOException | RuntimeException e)
+			{
+				log.error(e.getMessage(), e);
+			}
+		}
+	}
+}
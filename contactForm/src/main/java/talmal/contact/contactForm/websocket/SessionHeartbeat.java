@@ -0,0 +1,167 @@
+package talmal.contact.contactForm.websocket;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * server side heartbeat of web socket sessions.<br>
+ * every interval a session that received nothing since the last check is pinged, any frame or pong from the frontend counts as activity.
+ * a session idle for idleTimeout is a half-open connection, it is evicted from the registry and closed.<br>
+ * checks are timeouts of a hashed timing wheel, so a tick costs the same whatever the number of sessions
+ */
+@Slf4j
+@Component
+public class SessionHeartbeat
+{
+	// session attribute holding the heartbeat of the session
+	private static final String ATTRIBUTE_HEARTBEAT = "heartbeat";
+
+	private static final PingMessage PING = new PingMessage();
+
+	private final boolean enabled;
+	private final long interval;
+	private final long idleTimeout;
+	private final WebSocketSessionRegistry webSocketConnections;
+	private final Timer timer;
+	private final Counter pings;
+	private final Counter idleSessions;
+
+	public SessionHeartbeat(
+		@Value(value = "${services.websocket.heartbeat.enabled:false}") boolean enabled,
+		@Value(value = "${services.websocket.heartbeat.interval:25000}") long interval,
+		@Value(value = "${services.websocket.heartbeat.idleTimeout:60000}") long idleTimeout,
+		@Value(value = "${services.websocket.heartbeat.tickDuration:100}") long tickDuration,
+		@Value(value = "${services.websocket.heartbeat.ticksPerWheel:512}") int ticksPerWheel,
+		WebSocketSessionRegistry webSocketConnections,
+		MeterRegistry meterRegistry)
+	{
+		this.enabled = enabled;
+		this.interval = interval;
+		this.idleTimeout = idleTimeout;
+		this.webSocketConnections = webSocketConnections;
+		this.timer = enabled ? new HashedWheelTimer(new DefaultThreadFactory("websocket-heartbeat", true), tickDuration, TimeUnit.MILLISECONDS, ticksPerWheel) : null;
+		this.pings = meterRegistry.counter("websocket.heartbeat.pings");
+		this.idleSessions = meterRegistry.counter("websocket.heartbeat.idle");
+	}
+
+	/**
+	 * release resources
+	 */
+	@PreDestroy
+	void close()
+	{
+		if (this.timer != null)
+		{
+			this.timer.stop();
+		}
+	}
+
+	/**
+	 * start the heartbeat of a session
+	 * @param session - session as received from the container
+	 * @param outboundSession - session wrapped with its outbound queue, pings are written through it
+	 */
+	public void register(WebSocketSession session, WebSocketSession outboundSession)
+	{
+		if (this.enabled)
+		{
+			Heartbeat heartbeat = new Heartbeat(session, outboundSession);
+			session.getAttributes().put(SessionHeartbeat.ATTRIBUTE_HEARTBEAT, heartbeat);
+			heartbeat.timeout = this.timer.newTimeout(heartbeat, this.interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * record a frame or pong from the frontend
+	 * @param session - session as received from the container
+	 */
+	public void touch(WebSocketSession session)
+	{
+		Object heartbeat = session.getAttributes().get(SessionHeartbeat.ATTRIBUTE_HEARTBEAT);
+		if (heartbeat != null)
+		{
+			((Heartbeat) heartbeat).lastActivity = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * stop the heartbeat of a closed session
+	 * @param session - session as received from the container
+	 */
+	public void cancel(WebSocketSession session)
+	{
+		Object heartbeat = session.getAttributes().remove(SessionHeartbeat.ATTRIBUTE_HEARTBEAT);
+		if (heartbeat != null)
+		{
+			((Heartbeat) heartbeat).timeout.cancel();
+		}
+	}
+
+	/**
+	 * periodic check of a single session, rescheduled by itself while the session is alive
+	 */
+	private class Heartbeat implements TimerTask
+	{
+		private final WebSocketSession session;
+		private final WebSocketSession outboundSession;
+		private volatile long lastActivity = System.currentTimeMillis();
+		private volatile Timeout timeout;
+
+		private Heartbeat(WebSocketSession session, WebSocketSession outboundSession)
+		{
+			this.session = session;
+			this.outboundSession = outboundSession;
+		}
+
+		@Override
+		public void run(Timeout timeout)
+		{
+			if (!this.session.isOpen())
+			{
+				return;
+			}
+
+			long idle = System.currentTimeMillis() - this.lastActivity;
+			if (idle >= SessionHeartbeat.this.idleTimeout)
+			{
+				log.debug("Evicting session {} idle for {} (ms)", this.session.getId(), idle);
+				SessionHeartbeat.this.idleSessions.increment();
+				SessionHeartbeat.this.webSocketConnections.evict(this.session, CloseStatus.SESSION_NOT_RELIABLE);
+				return;
+			}
+
+			// a session that was active during the interval needs no ping
+			if (idle >= SessionHeartbeat.this.interval)
+			{
+				try
+				{
+					this.outboundSession.sendMessage(SessionHeartbeat.PING);
+					SessionHeartbeat.this.pings.increment();
+				}
+				catch (IOException e)
+				{
+					log.error(e.getMessage(), e);
+				}
+			}
+
+			this.timeout = timeout.timer().newTimeout(this, SessionHeartbeat.this.interval, TimeUnit.MILLISECONDS);
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package talmal.contact.contactForm.websocket;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import talmal.contact.contactForm.config.ThreadingConfig;
+import talmal.contact.contactForm.websocket.OutboundWebSocketSession.OverflowPolicy;
+
+/**
+ * thread safe registry of open web socket sessions, grouped by chat id.<br>
+ * a chat may be open in several sessions (browser tabs) at the same time.<br>
+ * registered sessions are wrapped with an asynchronous outbound queue, all writes to a session should go through it
+ */
+@Slf4j
+@Component
+public class WebSocketSessionRegistry
+{
+	// session attribute holding the chat id the session was registered with
+	public static final String ATTRIBUTE_CHAT_ID = "chatId";
+
+	// session attribute holding the cursor a reconnecting frontend resumes the chat from, absent on a first connection
+	public static final String ATTRIBUTE_RESUME_CURSOR = "resumeCursor";
+
+	// session attribute holding the outbound queue of the session
+	private static final String ATTRIBUTE_OUTBOUND_SESSION = "outboundSession";
+
+	private final Map<String, Map<String, WebSocketSession>> sessionsByChatId;
+	private final AtomicInteger sessionCount;
+
+	private final int sendTimeLimit;
+	private final int bufferSizeLimit;
+	private final OverflowPolicy overflowPolicy;
+	private final Scheduler sendScheduler;
+	private final Executor sendExecutor;
+	private final Counter droppedMessages;
+	private final Counter evictedSessions;
+
+	public WebSocketSessionRegistry(
+		@Value(value = "${services.websocket.sendTimeLimit:10000}") int sendTimeLimit,
+		@Value(value = "${services.websocket.bufferSizeLimit:524288}") int bufferSizeLimit,
+		@Value(value = "${services.websocket.overflowPolicy:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+		@Value(value = "${services.websocket.sendThreads:64}") int sendThreads,
+		ThreadingConfig threadingConfig,
+		MeterRegistry meterRegistry)
+	{
+		this.sessionsByChatId = new ConcurrentHashMap<String, Map<String, WebSocketSession>>();
+		this.sessionCount = new AtomicInteger();
+
+		this.sendTimeLimit = sendTimeLimit;
+		this.bufferSizeLimit = bufferSizeLimit;
+		this.overflowPolicy = overflowPolicy;
+		// a write blocked on a slow client holds a thread of the pool, unless it runs on a virtual thread
+		this.sendScheduler = threadingConfig.isVirtual() ? Schedulers.fromExecutor(threadingConfig.getVirtualThreadExecutor())
+			: Schedulers.newBoundedElastic(sendThreads, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "websocket-send");
+		this.sendExecutor = this.sendScheduler::schedule;
+
+		this.droppedMessages = meterRegistry.counter("websocket.outbound.dropped");
+		this.evictedSessions = meterRegistry.counter("websocket.outbound.evicted");
+		Gauge.builder("websocket.sessions.active", this, WebSocketSessionRegistry::getSessionCount)
+			.description("open web socket sessions").register(meterRegistry);
+		Gauge.builder("websocket.chats.active", this, WebSocketSessionRegistry::getChatCount)
+			.description("chats with at least one open web socket session").register(meterRegistry);
+		Gauge.builder("websocket.outbound.queue.depth", this, registry -> registry.getOutboundSessions().mapToInt(OutboundWebSocketSession::getQueueDepth).sum())
+			.description("messages waiting to be written to all sessions").register(meterRegistry);
+		Gauge.builder("websocket.outbound.queue.depth.max", this, registry -> registry.getOutboundSessions().mapToInt(OutboundWebSocketSession::getQueueDepth).max().orElse(0))
+			.description("messages waiting to be written to the slowest session").register(meterRegistry);
+		Gauge.builder("websocket.outbound.buffer.bytes", this, registry -> registry.getOutboundSessions().mapToLong(OutboundWebSocketSession::getBufferSize).sum())
+			.description("payload bytes waiting to be written to all sessions").register(meterRegistry);
+	}
+
+	/**
+	 * release resources
+	 */
+	@PreDestroy
+	void close()
+	{
+		this.sendScheduler.dispose();
+	}
+
+	/**
+	 * add session to the sessions of chatId
+	 * @param chatId
+	 * @param session
+	 * @return the session wrapped with its outbound queue, to be used for sending messages
+	 */
+	public WebSocketSession add(String chatId, WebSocketSession session)
+	{
+		OutboundWebSocketSession outboundSession = new OutboundWebSocketSession(session, this.sendExecutor, this.sendTimeLimit, this.bufferSizeLimit,
+			this.overflowPolicy, this.droppedMessages, this.evictedSessions);
+		session.getAttributes().put(WebSocketSessionRegistry.ATTRIBUTE_CHAT_ID, chatId);
+		session.getAttributes().put(WebSocketSessionRegistry.ATTRIBUTE_OUTBOUND_SESSION, outboundSession);
+
+		// compute is atomic per chat id, so a concurrent remove can not drop the map while adding to it
+		this.sessionsByChatId.compute(chatId, (key, sessions) ->
+		{
+			Map<String, WebSocketSession> result = sessions != null ? sessions : new ConcurrentHashMap<String, WebSocketSession>();
+			if (result.put(session.getId(), outboundSession) == null)
+			{
+				this.sessionCount.incrementAndGet();
+			}
+
+			return result;
+		});
+
+		return outboundSession;
+	}
+
+	/**
+	 * remove only the given session, other sessions of the same chat stay open
+	 * @param session
+	 * @return true if the session was registered
+	 */
+	public boolean remove(WebSocketSession session)
+	{
+		boolean[] removed = new boolean[1];
+		Object chatId = session.getAttributes().get(WebSocketSessionRegistry.ATTRIBUTE_CHAT_ID);
+		if (chatId != null)
+		{
+			this.sessionsByChatId.computeIfPresent((String) chatId, (key, sessions) ->
+			{
+				removed[0] = sessions.remove(session.getId()) != null;
+				return sessions.isEmpty() ? null : sessions;
+			});
+		}
+
+		if (removed[0])
+		{
+			this.sessionCount.decrementAndGet();
+		}
+
+		return removed[0];
+	}
+
+	/**
+	 * remove a session that stopped responding, and close it.<br>
+	 * the close handshake of a half-open connection may block until it times out, so it runs on the send scheduler
+	 * @param session
+	 * @param status
+	 */
+	public void evict(WebSocketSession session, CloseStatus status)
+	{
+		if (this.remove(session))
+		{
+			this.evictedSessions.increment();
+		}
+
+		this.sendScheduler.schedule(() ->
+		{
+			try
+			{
+				session.close(status);
+			}
+			catch (IOException | RuntimeException e)
+			{
+				log.error(e.getMessage(), e);
+			}
+		});
+	}
+
+	/**
+	 * @param session - session as received from the container
+	 * @return the session wrapped with its outbound queue, or the session itself if it is not registered
+	 */
+	public WebSocketSession getOutboundSession(WebSocketSession session)
+	{
+		Object outboundSession = session.getAttributes().get(WebSocketSessionRegistry.ATTRIBUTE_OUTBOUND_SESSION);
+		return outboundSession != null ? (WebSocketSession) outboundSession : session;
+	}
+
+	/**
+	 * @param chatId
+	 * @return live view of the sessions of chatId, safe to iterate while sessions are added or removed
+	 */
+	public Collection<WebSocketSession> getSessions(String chatId)
+	{
+		Map<String, WebSocketSession> sessions = chatId != null ? this.sessionsByChatId.get(chatId) : null;
+		return sessions != null ? Collections.unmodifiableCollection(sessions.values()) : Collections.emptyList();
+	}
+
+	/**
+	 * @return all open sessions of all chats
+	 */
+	public Stream<WebSocketSession> getAllSessions()
+	{
+		return this.sessionsByChatId.values().stream().flatMap(sessions -> sessions.values().stream());
+	}
+
+	/**
+	 * @return number of open sessions
+	 */
+	public int getSessionCount()
+	{
+		return this.sessionCount.get();
+	}
+
+	/**
+	 * @return number of chats with at least one open session
+	 */
+	public int getChatCount()
+	{
+		return this.sessionsByChatId.size();
+	}
+
+	private Stream<OutboundWebSocketSession> getOutboundSessions()
+	{
+		return this.getAllSessions().map(OutboundWebSocketSession.class::cast);
+	}
+}
@@ -0,0 +1,101 @@
+package talmal.contact.contactForm.models.context;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ResumeCursorTest
+{
+	private static final Instant T1 = Instant.parse("2022-10-29T10:00:00Z");
+	private static final Instant T2 = Instant.parse("2022-10-29T10:01:00Z");
+	private static final Instant T3 = Instant.parse("2022-10-29T10:02:00Z");
+
+	private static final ChatMessage A = ResumeCursorTest.message("a", ResumeCursorTest.T1);
+	private static final ChatMessage B = ResumeCursorTest.message("b", ResumeCursorTest.T2);
+	private static final ChatMessage C = ResumeCursorTest.message("c", ResumeCursorTest.T2);
+	private static final ChatMessage D = ResumeCursorTest.message("d", ResumeCursorTest.T3);
+
+	// sorted by date, b and c share a date
+	private static final List<ChatMessage> HISTORY = List.of(ResumeCursorTest.A, ResumeCursorTest.B, ResumeCursorTest.C, ResumeCursorTest.D);
+
+	@Test
+	void afterMessageId()
+	{
+		assertThat(new ResumeCursor("b", null).after(ResumeCursorTest.HISTORY)).containsExactly(ResumeCursorTest.C, ResumeCursorTest.D);
+		assertThat(new ResumeCursor("a", null).after(ResumeCursorTest.HISTORY)).containsExactly(ResumeCursorTest.B, ResumeCursorTest.C, ResumeCursorTest.D);
+	}
+
+	@Test
+	void afterLastMessage()
+	{
+		assertThat(new ResumeCursor("d", null).after(ResumeCursorTest.HISTORY)).isEmpty();
+	}
+
+	@Test
+	void messageIdNotFound()
+	{
+		assertThat(new ResumeCursor("x", null).after(ResumeCursorTest.HISTORY)).isEqualTo(ResumeCursorTest.HISTORY);
+	}
+
+	@Test
+	void afterDate()
+	{
+		assertThat(new ResumeCursor(null, ResumeCursorTest.T1).after(ResumeCursorTest.HISTORY)).containsExactly(ResumeCursorTest.B, ResumeCursorTest.C, ResumeCursorTest.D);
+	}
+
+	@Test
+	void afterDateExcludesEqualDates()
+	{
+		assertThat(new ResumeCursor(null, ResumeCursorTest.T2).after(ResumeCursorTest.HISTORY)).containsExactly(ResumeCursorTest.D);
+	}
+
+	@Test
+	void dateBeforeHistory()
+	{
+		assertThat(new ResumeCursor(null, ResumeCursorTest.T1.minusSeconds(1)).after(ResumeCursorTest.HISTORY)).isEqualTo(ResumeCursorTest.HISTORY);
+	}
+
+	@Test
+	void dateAfterHistory()
+	{
+		assertThat(new ResumeCursor(null, ResumeCursorTest.T3).after(ResumeCursorTest.HISTORY)).isEmpty();
+	}
+
+	@Test
+	void messageIdAndEqualDates()
+	{
+		// messages of the cursor date are kept until the message itself is found
+		assertThat(new ResumeCursor("b", ResumeCursorTest.T2).after(ResumeCursorTest.HISTORY)).containsExactly(ResumeCursorTest.C, ResumeCursorTest.D);
+		assertThat(new ResumeCursor("c", ResumeCursorTest.T2).after(ResumeCursorTest.HISTORY)).containsExactly(ResumeCursorTest.D);
+	}
+
+	@Test
+	void messageIdNotFoundFallsBackToDate()
+	{
+		// without the message, every message of the cursor date is sent again
+		assertThat(new ResumeCursor("x", ResumeCursorTest.T2).after(ResumeCursorTest.HISTORY)).containsExactly(ResumeCursorTest.B, ResumeCursorTest.C, ResumeCursorTest.D);
+	}
+
+	@Test
+	void messagesWithoutDate()
+	{
+		ChatMessage undated = ResumeCursorTest.message("u", null);
+
+		assertThat(new ResumeCursor(null, ResumeCursorTest.T1).after(List.of(undated, ResumeCursorTest.A, ResumeCursorTest.B))).containsExactly(ResumeCursorTest.B);
+		assertThat(new ResumeCursor(null, ResumeCursorTest.T1).after(List.of(undated))).containsExactly(undated);
+	}
+
+	@Test
+	void emptyHistory()
+	{
+		assertThat(new ResumeCursor("a", ResumeCursorTest.T1).after(List.of())).isEmpty();
+	}
+
+	private static ChatMessage message(String messageId, Instant date)
+	{
+		return new ChatMessage("C1", messageId, "n", "m", date, SenderType.USER);
+	}
+}
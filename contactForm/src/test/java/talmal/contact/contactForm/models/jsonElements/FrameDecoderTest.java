@@ -0,0 +1,175 @@
+package talmal.contact.contactForm.models.jsonElements;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.SenderType;
+import talmal.contact.contactForm.models.jsonElements.DecodeResult.DecodeError;
+
+class FrameDecoderTest
+{
+	private static final String FRAME = "{\"chatId\":\"C1\",\"messageId\":\"1667000001.000100\",\"name\":\"Jane Doe\",\"message\":\"hello\","
+		+ "\"date\":1667000000,\"senderType\":\"USER\"}";
+
+	@Test
+	void decode()
+	{
+		DecodeResult<ChatMessage> result = FrameDecoder.decodeChatMessage(FrameDecoderTest.FRAME);
+
+		assertThat(result.isValid()).isTrue();
+		assertThat(result.getValue()).isEqualTo(new ChatMessage("C1", "1667000001.000100", "Jane Doe", "hello", Instant.ofEpochSecond(1667000000L), SenderType.USER));
+	}
+
+	@Test
+	void decodeWhitespaceAndNulls()
+	{
+		DecodeResult<ChatMessage> result = FrameDecoder.decodeChatMessage(
+			" \r\n{ \"chatId\" : \"C1\" ,\t\"messageId\" : null , \"name\":null, \"date\" : 1667000000 , \"senderType\" : \"OWNER\" }\n");
+
+		assertThat(result.getValue()).isEqualTo(new ChatMessage("C1", null, null, null, Instant.ofEpochSecond(1667000000L), SenderType.OWNER));
+	}
+
+	@Test
+	void escapes()
+	{
+		assertThat(FrameDecoderTest.decodeMessage("\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\"").getValue().getMessage()).isEqualTo("a\"b\\c/d\b\f\n\r\t");
+		assertThat(FrameDecoderTest.decodeMessage("\"h\\u00e9llo \\u20AC\"").getValue().getMessage()).isEqualTo("h\u00e9llo \u20ac");
+		// a character out of the basic plane is escaped as a surrogate pair
+		assertThat(FrameDecoderTest.decodeMessage("\"\\ud83d\\ude00\"").getValue().getMessage()).isEqualTo("\ud83d\ude00");
+		assertThat(FrameDecoderTest.decodeMessage("\"\"").getValue().getMessage()).isEmpty();
+	}
+
+	@Test
+	void invalidEscapes()
+	{
+		assertThat(FrameDecoderTest.decodeMessage("\"a\\x\"").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoderTest.decodeMessage("\"a\\u12\"").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoderTest.decodeMessage("\"a\\u12G4\"").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+	}
+
+	@Test
+	void unknownFieldsAreSkipped()
+	{
+		DecodeResult<ChatMessage> result = FrameDecoder.decodeChatMessage("{\"x\":1.5e3,\"y\":true,\"z\":null,\"w\":\"s,}\","
+			+ "\"nested\":{\"chatId\":\"C2\",\"a\":[1,{\"b\":[]},\"]\"]},\"list\":[],\"e\\u0073c\":\"v\","
+			+ "\"chatId\":\"C1\",\"message\":\"m\",\"date\":1667000000,\"senderType\":\"USER\"}");
+
+		assertThat(result.isValid()).isTrue();
+		assertThat(result.getValue().getChatId()).isEqualTo("C1");
+		assertThat(result.getValue().getMessage()).isEqualTo("m");
+	}
+
+	@Test
+	void lastDuplicateFieldWins()
+	{
+		assertThat(FrameDecoder.decodeChatMessage("{\"chatId\":\"C1\",\"chatId\":\"C2\",\"date\":1,\"senderType\":\"USER\"}").getValue().getChatId())
+			.isEqualTo("C2");
+	}
+
+	@Test
+	void missingFields()
+	{
+		DecodeResult<ChatMessage> missingDate = FrameDecoder.decodeChatMessage("{\"chatId\":\"C1\",\"senderType\":\"USER\"}");
+		DecodeResult<ChatMessage> missingSenderType = FrameDecoder.decodeChatMessage("{\"chatId\":\"C1\",\"date\":1}");
+		DecodeResult<ChatMessage> nullSenderType = FrameDecoder.decodeChatMessage("{\"chatId\":\"C1\",\"date\":1,\"senderType\":null}");
+
+		assertThat(missingDate.getError()).isEqualTo(DecodeError.MISSING_FIELD);
+		assertThat(missingDate.getDetail()).isEqualTo("date");
+		assertThat(missingSenderType.getError()).isEqualTo(DecodeError.MISSING_FIELD);
+		assertThat(missingSenderType.getDetail()).isEqualTo("senderType");
+		assertThat(nullSenderType.getDetail()).isEqualTo("senderType");
+		assertThat(FrameDecoder.decodeChatMessage("{}").getDetail()).isEqualTo("date");
+	}
+
+	@Test
+	void invalidSenderType()
+	{
+		assertThat(FrameDecoderTest.decodeSenderType("\"BOT\"").getError()).isEqualTo(DecodeError.INVALID_SENDER_TYPE);
+		assertThat(FrameDecoderTest.decodeSenderType("\"BOT\"").getDetail()).isEqualTo("BOT");
+		assertThat(FrameDecoderTest.decodeSenderType("\"user\"").getError()).isEqualTo(DecodeError.INVALID_SENDER_TYPE);
+		assertThat(FrameDecoderTest.decodeSenderType("\"USERS\"").getError()).isEqualTo(DecodeError.INVALID_SENDER_TYPE);
+		assertThat(FrameDecoderTest.decodeSenderType("1").getError()).isEqualTo(DecodeError.INVALID_SENDER_TYPE);
+		assertThat(FrameDecoderTest.decodeSenderType("\"USER").getError()).isEqualTo(DecodeError.INVALID_SENDER_TYPE);
+	}
+
+	@Test
+	void malformed()
+	{
+		assertThat(FrameDecoder.decodeChatMessage("").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoder.decodeChatMessage("   ").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoder.decodeChatMessage("[]").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoder.decodeChatMessage("null").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoder.decodeChatMessage("{chatId:\"C1\"}").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoder.decodeChatMessage("{\"chatId\" \"C1\"}").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoder.decodeChatMessage("{\"chatId\":\"C1\";\"date\":1}").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoder.decodeChatMessage("{\"chatId\":\"C1\",}").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoder.decodeChatMessage("{\"chatId\":5,\"date\":1,\"senderType\":\"USER\"}").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoder.decodeChatMessage("{\"x\":,\"date\":1,\"senderType\":\"USER\"}").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+	}
+
+	@Test
+	void truncated()
+	{
+		for (int length = 0; length < FrameDecoderTest.FRAME.length(); length++)
+		{
+			DecodeResult<ChatMessage> result = FrameDecoder.decodeChatMessage(FrameDecoderTest.FRAME.substring(0, length));
+
+			assertThat(result.isValid()).as("frame cut at %d", length).isFalse();
+		}
+	}
+
+	@Test
+	void trailingContent()
+	{
+		assertThat(FrameDecoder.decodeChatMessage(FrameDecoderTest.FRAME + " \n").isValid()).isTrue();
+		assertThat(FrameDecoder.decodeChatMessage(FrameDecoderTest.FRAME + "x").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoder.decodeChatMessage(FrameDecoderTest.FRAME + FrameDecoderTest.FRAME).getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+		assertThat(FrameDecoder.decodeChatMessage(FrameDecoderTest.FRAME + "}").getError()).isEqualTo(DecodeError.MALFORMED_JSON);
+	}
+	@Test
+	void dateFormats()
+	{
+		Instant date = Instant.ofEpochSecond(1667000000L);
+
+		assertThat(FrameDecoderTest.decodeDate("1667000000").getValue().getDate()).isEqualTo(date);
+		assertThat(FrameDecoderTest.decodeDate("1667000000.9").getValue().getDate()).isEqualTo(date);
+		assertThat(FrameDecoderTest.decodeDate("\"1667000000\"").getValue().getDate()).isEqualTo(date);
+		assertThat(FrameDecoderTest.decodeDate("\"2022-10-28T23:33:20Z\"").getValue().getDate()).isEqualTo(date);
+	}
+
+	@Test
+	void dateOutOfRange()
+	{
+		assertThat(FrameDecoderTest.decodeDate("999999999999999999").getError()).isEqualTo(DecodeError.INVALID_DATE);
+		assertThat(FrameDecoderTest.decodeDate("-999999999999999999").getError()).isEqualTo(DecodeError.INVALID_DATE);
+		assertThat(FrameDecoderTest.decodeDate("\"999999999999999999\"").getError()).isEqualTo(DecodeError.INVALID_DATE);
+		assertThat(FrameDecoderTest.decodeDate("1e300").getError()).isEqualTo(DecodeError.INVALID_DATE);
+		assertThat(FrameDecoderTest.decodeDate("99999999999999999999999").getError()).isEqualTo(DecodeError.INVALID_DATE);
+	}
+
+	@Test
+	void dateInvalid()
+	{
+		assertThat(FrameDecoderTest.decodeDate("\"yesterday\"").getError()).isEqualTo(DecodeError.INVALID_DATE);
+		assertThat(FrameDecoderTest.decodeDate("true").getError()).isEqualTo(DecodeError.INVALID_DATE);
+	}
+
+	private static DecodeResult<ChatMessage> decodeDate(String date)
+	{
+		return FrameDecoder.decodeChatMessage("{\"chatId\":\"C1\",\"message\":\"m\",\"date\":" + date + ",\"senderType\":\"USER\"}");
+	}
+
+	private static DecodeResult<ChatMessage> decodeMessage(String message)
+	{
+		return FrameDecoder.decodeChatMessage("{\"chatId\":\"C1\",\"message\":" + message + ",\"date\":1,\"senderType\":\"USER\"}");
+	}
+
+	private static DecodeResult<ChatMessage> decodeSenderType(String senderType)
+	{
+		return FrameDecoder.decodeChatMessage("{\"chatId\":\"C1\",\"message\":\"m\",\"date\":1,\"senderType\":" + senderType + "}");
+	}
+}
@@ -0,0 +1,66 @@
+package talmal.contact.contactForm.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class AdmissionControlTest
+{
+	private final AdmissionControl admissionControl = new AdmissionControl(true, 1, 2, 100, 1, 1000, 0, new SimpleMeterRegistry());
+
+	@Test
+	void chatBurst()
+	{
+		assertThat(this.admissionControl.tryAcquireChat("C1")).isTrue();
+		assertThat(this.admissionControl.tryAcquireChat("C1")).isTrue();
+		assertThat(this.admissionControl.tryAcquireChat("C1")).isFalse();
+
+		// each chat has its own bucket
+		assertThat(this.admissionControl.tryAcquireChat("C2")).isTrue();
+	}
+
+	@Test
+	void concurrencyLimit()
+	{
+		Sinks.Empty<Void> reply = Sinks.empty();
+		this.admissionControl.limitConcurrency(reply.asMono()).subscribe();
+
+		assertThat(this.admissionControl.getInFlightRequests()).isEqualTo(1);
+		assertThat(this.admissionControl.limitConcurrency(Mono.just(1)).onErrorReturn(-1).block()).isEqualTo(-1);
+
+		reply.tryEmitEmpty();
+
+		assertThat(this.admissionControl.getInFlightRequests()).isZero();
+		assertThat(this.admissionControl.limitConcurrency(Mono.just(1)).block()).isEqualTo(1);
+	}
+
+	@Test
+	void awaitInFlightRequestsWakesUpOnLastRequest() throws InterruptedException
+	{
+		this.admissionControl.limitConcurrency(Mono.delay(Duration.ofMillis(100))).subscribe();
+		this.admissionControl.startDraining();
+
+		long startTime = System.nanoTime();
+		boolean drained = this.admissionControl.awaitInFlightRequests(startTime + TimeUnit.SECONDS.toNanos(10));
+
+		assertThat(drained).isTrue();
+		assertThat(System.nanoTime() - startTime).isLessThan(TimeUnit.SECONDS.toNanos(5));
+	}
+
+	@Test
+	void awaitInFlightRequestsTimeout() throws InterruptedException
+	{
+		Sinks.Empty<Void> reply = Sinks.empty();
+		this.admissionControl.limitConcurrency(reply.asMono()).subscribe();
+		this.admissionControl.startDraining();
+
+		assertThat(this.admissionControl.awaitInFlightRequests(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50))).isFalse();
+	}
+}
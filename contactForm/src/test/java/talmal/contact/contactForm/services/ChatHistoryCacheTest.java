@@ -0,0 +1,107 @@
+package talmal.contact.contactForm.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.MessageIdFlag;
+import talmal.contact.contactForm.models.context.SenderType;
+
+class ChatHistoryCacheTest
+{
+	private static final ChatMessage A = ChatHistoryCacheTest.message("a", 1);
+	private static final ChatMessage B = ChatHistoryCacheTest.message("b", 2);
+	private static final ChatMessage C = ChatHistoryCacheTest.message("c", 3);
+
+	private final ChatHistoryCache chatHistoryCache = ChatHistoryCacheTest.newChatHistoryCache(true);
+
+	@Test
+	void putSortsByDate()
+	{
+		this.chatHistoryCache.put("C1", List.of(ChatHistoryCacheTest.B, ChatHistoryCacheTest.A));
+
+		assertThat(this.chatHistoryCache.get("C1")).containsExactly(ChatHistoryCacheTest.A, ChatHistoryCacheTest.B);
+	}
+
+	@Test
+	void appendToCachedHistory()
+	{
+		this.chatHistoryCache.put("C1", List.of(ChatHistoryCacheTest.A, ChatHistoryCacheTest.C));
+
+		this.chatHistoryCache.append(ChatHistoryCacheTest.B);
+		this.chatHistoryCache.append(ChatHistoryCacheTest.B);
+
+		assertThat(this.chatHistoryCache.get("C1")).containsExactly(ChatHistoryCacheTest.A, ChatHistoryCacheTest.B, ChatHistoryCacheTest.C);
+	}
+
+	@Test
+	void appendWithoutCachedHistoryIsIgnored()
+	{
+		this.chatHistoryCache.append(ChatHistoryCacheTest.A);
+
+		assertThat(this.chatHistoryCache.get("C1")).isNull();
+	}
+
+	@Test
+	void appendOfFailedMessageIsIgnored()
+	{
+		this.chatHistoryCache.put("C1", List.of(ChatHistoryCacheTest.A));
+
+		this.chatHistoryCache.append(ChatHistoryCacheTest.message(MessageIdFlag.COMMUNICATION_ERROR.name(), 2));
+
+		assertThat(this.chatHistoryCache.get("C1")).containsExactly(ChatHistoryCacheTest.A);
+	}
+
+	@Test
+	void appendDuringLoadIsMerged()
+	{
+		this.chatHistoryCache.startLoad("C1");
+		this.chatHistoryCache.append(ChatHistoryCacheTest.C);
+		this.chatHistoryCache.append(ChatHistoryCacheTest.B);
+
+		// the loaded history already holds b, its snapshot was taken after b was sent
+		this.chatHistoryCache.put("C1", List.of(ChatHistoryCacheTest.A, ChatHistoryCacheTest.B));
+		this.chatHistoryCache.endLoad("C1");
+
+		assertThat(this.chatHistoryCache.get("C1")).containsExactly(ChatHistoryCacheTest.A, ChatHistoryCacheTest.B, ChatHistoryCacheTest.C);
+	}
+
+	@Test
+	void appendAfterFailedLoadIsNotKept()
+	{
+		this.chatHistoryCache.startLoad("C1");
+		this.chatHistoryCache.append(ChatHistoryCacheTest.B);
+		this.chatHistoryCache.endLoad("C1");
+
+		this.chatHistoryCache.put("C1", List.of(ChatHistoryCacheTest.A));
+
+		assertThat(this.chatHistoryCache.get("C1")).containsExactly(ChatHistoryCacheTest.A);
+	}
+
+	@Test
+	void disabled()
+	{
+		ChatHistoryCache disabledChatHistoryCache = ChatHistoryCacheTest.newChatHistoryCache(false);
+
+		disabledChatHistoryCache.startLoad("C1");
+		disabledChatHistoryCache.put("C1", List.of(ChatHistoryCacheTest.A));
+		disabledChatHistoryCache.append(ChatHistoryCacheTest.B);
+
+		assertThat(disabledChatHistoryCache.get("C1")).isNull();
+	}
+
+	private static ChatHistoryCache newChatHistoryCache(boolean enabled)
+	{
+		return new ChatHistoryCache(enabled, 100, 600000, new SimpleMeterRegistry());
+	}
+
+	private static ChatMessage message(String messageId, long epochSecond)
+	{
+		return new ChatMessage("C1", messageId, "n", "m", Instant.ofEpochSecond(epochSecond), SenderType.USER);
+	}
+}
@@ -0,0 +1,133 @@
+package talmal.contact.contactForm.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import talmal.contact.contactForm.config.MessagingConfig;
+import talmal.contact.contactForm.config.SlackGson;
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.SenderType;
+
+class MessageOutboxTest
+{
+	// drain interval of the tests that drain by themselves
+	private static final long MANUAL_DRAIN = 60000;
+
+	private static final ChatMessage CHAT_MESSAGE = new ChatMessage("C1", null, "n", "m", Instant.ofEpochSecond(1667000000L), SenderType.USER);
+
+	@TempDir
+	Path directory;
+
+	private final MessageQueueService messageQueueService = mock(MessageQueueService.class);
+	private final ChatHistoryCache chatHistoryCache = mock(ChatHistoryCache.class);
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private MessageOutbox messageOutbox;
+
+	@AfterEach
+	void close() throws Exception
+	{
+		if (this.messageOutbox != null)
+		{
+			this.messageOutbox.close();
+		}
+	}
+
+	@Test
+	void replayPendingRequest() throws Exception
+	{
+		// the reply arrives asynchronously, so the replay really blocks on the drainer thread
+		ChatMessage reply = new ChatMessage("C1", "1667000001.000100", "n", "m", Instant.ofEpochSecond(1667000001L), SenderType.USER);
+		when(this.messageQueueService.convertAndSendMessageAndReceiveMessage(eq(MessagingConfig.TO_SLACK_NEW_MESSAGE_QUEUE), any()))
+			.thenReturn(Mono.just(SlackGson.toJson(reply)).delayElement(Duration.ofMillis(10)));
+		this.messageOutbox = this.newMessageOutbox(3, 10);
+
+		long position = this.messageOutbox.append(MessageOutbox.Kind.NEW_MESSAGE, MessageOutboxTest.CHAT_MESSAGE);
+
+		verify(this.chatHistoryCache, timeout(5000)).append(reply);
+		assertThat(this.messageOutbox.isPending(position)).isFalse();
+		assertThat(this.meterRegistry.counter("contact.outbox.replayed").count()).isEqualTo(1);
+		assertThat(this.meterRegistry.counter("contact.outbox.failed").count()).isZero();
+	}
+
+	@Test
+	void markSentIsNotReplayed() throws Exception
+	{
+		this.messageOutbox = this.newMessageOutbox(3, MessageOutboxTest.MANUAL_DRAIN);
+
+		long position = this.messageOutbox.append(MessageOutbox.Kind.NEW_MESSAGE, MessageOutboxTest.CHAT_MESSAGE);
+		this.messageOutbox.markSent(position);
+		this.messageOutbox.drain();
+
+		assertThat(this.messageOutbox.isPending(position)).isFalse();
+		assertThat(this.meterRegistry.counter("contact.outbox.replayed").count()).isZero();
+	}
+
+	@Test
+	void dropAfterMaxAttempts() throws Exception
+	{
+		when(this.messageQueueService.convertAndSendMessageAndReceiveMessage(eq(MessagingConfig.TO_SLACK_NEW_MESSAGE_QUEUE), any()))
+			.thenReturn(Mono.error(new IllegalStateException("broker unavailable")));
+		this.messageOutbox = this.newMessageOutbox(2, MessageOutboxTest.MANUAL_DRAIN);
+
+		long position = this.messageOutbox.append(MessageOutbox.Kind.NEW_MESSAGE, MessageOutboxTest.CHAT_MESSAGE);
+		this.messageOutbox.drain();
+
+		assertThat(this.messageOutbox.isPending(position)).isTrue();
+
+		this.messageOutbox.drain();
+
+		assertThat(this.messageOutbox.isPending(position)).isFalse();
+		assertThat(this.meterRegistry.counter("contact.outbox.failed").count()).isEqualTo(1);
+	}
+
+	@Test
+	void pendingRequestsSurviveRestart() throws Exception
+	{
+		this.messageOutbox = this.newMessageOutbox(3, MessageOutboxTest.MANUAL_DRAIN);
+		long position = this.messageOutbox.append(MessageOutbox.Kind.NEW_MESSAGE, MessageOutboxTest.CHAT_MESSAGE);
+		this.messageOutbox.close();
+
+		this.messageOutbox = this.newMessageOutbox(3, MessageOutboxTest.MANUAL_DRAIN);
+
+		assertThat(this.messageOutbox.isPending(position)).isTrue();
+	}
+
+	@Test
+	void disabled() throws Exception
+	{
+		this.messageOutbox = new MessageOutbox(this.messageQueueService, this.chatHistoryCache, false, this.directory.toString(), 4096, 0, MessageOutboxTest.MANUAL_DRAIN, 0, 3,
+			this.meterRegistry);
+
+		long position = this.messageOutbox.append(MessageOutbox.Kind.NEW_MESSAGE, MessageOutboxTest.CHAT_MESSAGE);
+
+		assertThat(position).isEqualTo(MessageOutbox.NOT_RECORDED);
+		assertThat(this.messageOutbox.isPending(position)).isFalse();
+	}
+
+	/**
+	 * @param maxAttempts
+	 * @param drainInterval
+	 * @return outbox that replays every pending request on each drain, and syncs on every write
+	 */
+	private MessageOutbox newMessageOutbox(int maxAttempts, long drainInterval) throws Exception
+	{
+		return new MessageOutbox(this.messageQueueService, this.chatHistoryCache, true, this.directory.toString(), 4096, 0, drainInterval, 0, maxAttempts,
+			this.meterRegistry);
+	}
+}
@@ -0,0 +1,229 @@
+package talmal.contact.contactForm.websocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import talmal.contact.contactForm.models.context.ChatMessage;
+import talmal.contact.contactForm.models.context.SenderType;
+import talmal.contact.contactForm.models.jsonElements.DecodeResult;
+import talmal.contact.contactForm.models.jsonElements.DecodeResult.DecodeError;
+
+class BinaryFrameCodecTest
+{
+	private static final String CHAT_ID = "C04ABCDEF12-1667000000.123456";
+
+	@Test
+	void roundTrip()
+	{
+		ChatMessage chatMessage = new ChatMessage(BinaryFrameCodecTest.CHAT_ID, "1667000001.000100", "Jane Doe", "h\u00e9llo w\u00f6rld \u20ac",
+			Instant.ofEpochSecond(1667000001L), SenderType.USER);
+
+		DecodeResult<ChatMessage> result = BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(BinaryFrameCodec.encode(chatMessage)), BinaryFrameCodecTest.CHAT_ID);
+
+		assertThat(result.isValid()).isTrue();
+		assertThat(result.getValue()).isEqualTo(chatMessage);
+	}
+
+	@Test
+	void roundTripNullFields()
+	{
+		ChatMessage chatMessage = new ChatMessage(BinaryFrameCodecTest.CHAT_ID, null, null, "", Instant.ofEpochSecond(0), SenderType.OWNER);
+
+		DecodeResult<ChatMessage> result = BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(BinaryFrameCodec.encode(chatMessage)), BinaryFrameCodecTest.CHAT_ID);
+
+		assertThat(result.getValue()).isEqualTo(chatMessage);
+		assertThat(result.getValue().getMessageId()).isNull();
+		assertThat(result.getValue().getMessage()).isEmpty();
+	}
+
+	@Test
+	void roundTripDateBeforeEpoch()
+	{
+		ChatMessage chatMessage = new ChatMessage(BinaryFrameCodecTest.CHAT_ID, "1", "n", "m", Instant.ofEpochSecond(-86400), SenderType.USER);
+
+		DecodeResult<ChatMessage> result = BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(BinaryFrameCodec.encode(chatMessage)), BinaryFrameCodecTest.CHAT_ID);
+
+		assertThat(result.getValue().getDate()).isEqualTo(chatMessage.getDate());
+	}
+
+	@Test
+	void decodeDirectBufferKeepsPosition()
+	{
+		byte[] frame = BinaryFrameCodec.encode(new ChatMessage(BinaryFrameCodecTest.CHAT_ID, "1", "n", "message", Instant.ofEpochSecond(1), SenderType.USER));
+		ByteBuffer payload = ByteBuffer.allocateDirect(frame.length);
+		payload.put(frame).flip();
+
+		DecodeResult<ChatMessage> result = BinaryFrameCodec.decodeChatMessage(payload, BinaryFrameCodecTest.CHAT_ID);
+
+		assertThat(result.getValue().getMessage()).isEqualTo("message");
+		assertThat(payload.position()).isZero();
+	}
+
+	@Test
+	void rejectUnsupportedVersion()
+	{
+		byte[] frame = BinaryFrameCodec.encode(new ChatMessage(BinaryFrameCodecTest.CHAT_ID, "1", "n", "m", Instant.ofEpochSecond(1), SenderType.USER));
+		frame[0] = 2;
+
+		assertThat(BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(frame), BinaryFrameCodecTest.CHAT_ID).getError()).isEqualTo(DecodeError.MALFORMED_FRAME);
+	}
+
+	@Test
+	void rejectEmptyFrame()
+	{
+		assertThat(BinaryFrameCodec.decodeChatMessage(ByteBuffer.allocate(0), BinaryFrameCodecTest.CHAT_ID).getError()).isEqualTo(DecodeError.MALFORMED_FRAME);
+	}
+
+	@Test
+	void rejectTruncatedFrame()
+	{
+		byte[] frame = BinaryFrameCodec.encode(new ChatMessage(BinaryFrameCodecTest.CHAT_ID, "1", "n", "message", Instant.ofEpochSecond(1), SenderType.USER));
+		for (int length = 1; length < frame.length; length++)
+		{
+			DecodeResult<ChatMessage> result = BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(frame, 0, length), BinaryFrameCodecTest.CHAT_ID);
+
+			assertThat(result.getError()).as("frame cut at %d", length).isEqualTo(DecodeError.MALFORMED_FRAME);
+		}
+	}
+
+	@Test
+	void rejectTrailingBytes()
+	{
+		byte[] frame = BinaryFrameCodec.encode(new ChatMessage(BinaryFrameCodecTest.CHAT_ID, "1", "n", "m", Instant.ofEpochSecond(1), SenderType.USER));
+		ByteBuffer payload = ByteBuffer.wrap(Arrays.copyOf(frame, frame.length + 1));
+
+		assertThat(BinaryFrameCodec.decodeChatMessage(payload, BinaryFrameCodecTest.CHAT_ID).getError()).isEqualTo(DecodeError.MALFORMED_FRAME);
+	}
+
+	@Test
+	void rejectLengthWithTopBitSet()
+	{
+		// length + 1 of 2^64 - 1 reads as -1, a length of -2, followed by a valid rest of frame
+		ByteArrayOutputStream frame = BinaryFrameCodecTest.frame();
+		frame.writeBytes(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01 });
+		frame.writeBytes(new byte[] { 0, 0 });
+		BinaryFrameCodecTest.putVarint(frame, 3);
+		BinaryFrameCodecTest.putVarint(frame, SenderType.USER.ordinal() + 1);
+
+		assertThat(BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(frame.toByteArray()), BinaryFrameCodecTest.CHAT_ID).getError())
+			.isEqualTo(DecodeError.MALFORMED_FRAME);
+	}
+
+	@Test
+	void rejectLengthOutOfFrame()
+	{
+		ByteArrayOutputStream frame = BinaryFrameCodecTest.frame();
+		BinaryFrameCodecTest.putVarint(frame, 100);
+		frame.writeBytes(new byte[] { 'a', 'b' });
+
+		assertThat(BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(frame.toByteArray()), BinaryFrameCodecTest.CHAT_ID).getError())
+			.isEqualTo(DecodeError.MALFORMED_FRAME);
+	}
+
+	@Test
+	void rejectVarintTooLong()
+	{
+		ByteArrayOutputStream frame = BinaryFrameCodecTest.frame();
+		for (int index = 0; index < 11; index++)
+		{
+			frame.write(0x80);
+		}
+
+		frame.write(0);
+
+		assertThat(BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(frame.toByteArray()), BinaryFrameCodecTest.CHAT_ID).getError())
+			.isEqualTo(DecodeError.MALFORMED_FRAME);
+	}
+
+	@Test
+	void rejectMissingDate()
+	{
+		ByteArrayOutputStream frame = BinaryFrameCodecTest.frame();
+		frame.writeBytes(new byte[] { 0, 0, 0 });
+		BinaryFrameCodecTest.putVarint(frame, 0);
+		BinaryFrameCodecTest.putVarint(frame, SenderType.USER.ordinal() + 1);
+
+		DecodeResult<ChatMessage> result = BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(frame.toByteArray()), BinaryFrameCodecTest.CHAT_ID);
+
+		assertThat(result.getError()).isEqualTo(DecodeError.MISSING_FIELD);
+		assertThat(result.getDetail()).isEqualTo("date");
+	}
+
+	@Test
+	void rejectMissingSenderType()
+	{
+		ByteArrayOutputStream frame = BinaryFrameCodecTest.frame();
+		frame.writeBytes(new byte[] { 0, 0, 0 });
+		BinaryFrameCodecTest.putVarint(frame, 3);
+		BinaryFrameCodecTest.putVarint(frame, 0);
+
+		DecodeResult<ChatMessage> result = BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(frame.toByteArray()), BinaryFrameCodecTest.CHAT_ID);
+
+		assertThat(result.getError()).isEqualTo(DecodeError.MISSING_FIELD);
+		assertThat(result.getDetail()).isEqualTo("senderType");
+	}
+
+	@Test
+	void rejectUnknownSenderType()
+	{
+		ByteArrayOutputStream frame = BinaryFrameCodecTest.frame();
+		frame.writeBytes(new byte[] { 0, 0, 0 });
+		BinaryFrameCodecTest.putVarint(frame, 3);
+		BinaryFrameCodecTest.putVarint(frame, SenderType.values().length + 1);
+
+		assertThat(BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(frame.toByteArray()), BinaryFrameCodecTest.CHAT_ID).getError())
+			.isEqualTo(DecodeError.INVALID_SENDER_TYPE);
+	}
+
+	@Test
+	void rejectSenderTypeWithTopBitSet()
+	{
+		ByteArrayOutputStream frame = BinaryFrameCodecTest.frame();
+		frame.writeBytes(new byte[] { 0, 0, 0 });
+		BinaryFrameCodecTest.putVarint(frame, 3);
+		BinaryFrameCodecTest.putVarint(frame, -1);
+
+		assertThat(BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(frame.toByteArray()), BinaryFrameCodecTest.CHAT_ID).getError())
+			.isEqualTo(DecodeError.INVALID_SENDER_TYPE);
+	}
+
+	@Test
+	void rejectDateOutOfRange()
+	{
+		// zigzag of a positive epoch second is twice its value, shifted by one
+		ByteArrayOutputStream frame = BinaryFrameCodecTest.frame();
+		frame.writeBytes(new byte[] { 0, 0, 0 });
+		BinaryFrameCodecTest.putVarint(frame, 2 * (Instant.MAX.getEpochSecond() + 1) + 1);
+		BinaryFrameCodecTest.putVarint(frame, SenderType.USER.ordinal() + 1);
+
+		assertThat(BinaryFrameCodec.decodeChatMessage(ByteBuffer.wrap(frame.toByteArray()), BinaryFrameCodecTest.CHAT_ID).getError())
+			.isEqualTo(DecodeError.INVALID_DATE);
+	}
+
+	/**
+	 * @return frame started with the version byte
+	 */
+	private static ByteArrayOutputStream frame()
+	{
+		ByteArrayOutputStream frame = new ByteArrayOutputStream();
+		frame.write(1);
+		return frame;
+	}
+
+	private static void putVarint(ByteArrayOutputStream frame, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			frame.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+
+		frame.write((int) value);
+	}
+}
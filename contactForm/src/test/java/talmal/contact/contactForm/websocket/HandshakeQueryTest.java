@@ -0,0 +1,116 @@
+package talmal.contact.contactForm.websocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+import talmal.contact.contactForm.models.context.ResumeCursor;
+
+class HandshakeQueryTest
+{
+	@Test
+	void getValue()
+	{
+		assertThat(HandshakeQuery.getValue("chatId=C1", "chatId")).isEqualTo("C1");
+		assertThat(HandshakeQuery.getValue("a=1&chatId=C1&b=2", "chatId")).isEqualTo("C1");
+	}
+
+	@Test
+	void getValueOfFirstParameter()
+	{
+		assertThat(HandshakeQuery.getValue("chatId=C1&chatId=C2", "chatId")).isEqualTo("C1");
+	}
+
+	@Test
+	void getValueMatchesWholeKey()
+	{
+		assertThat(HandshakeQuery.getValue("chatIdX=C1&chatId=C2", "chatId")).isEqualTo("C2");
+		assertThat(HandshakeQuery.getValue("xchatId=C1", "chatId")).isNull();
+		assertThat(HandshakeQuery.getValue("chat=C1", "chatId")).isNull();
+	}
+
+	@Test
+	void getValueSkipsParameterWithoutEquals()
+	{
+		assertThat(HandshakeQuery.getValue("chatId&chatId=C2", "chatId")).isEqualTo("C2");
+		assertThat(HandshakeQuery.getValue("chatId", "chatId")).isNull();
+		assertThat(HandshakeQuery.getValue("&&chatId=C1&", "chatId")).isEqualTo("C1");
+	}
+
+	@Test
+	void getValueEmpty()
+	{
+		assertThat(HandshakeQuery.getValue("chatId=&b=2", "chatId")).isNull();
+		assertThat(HandshakeQuery.getValue("chatId=", "chatId")).isNull();
+		assertThat(HandshakeQuery.getValue("", "chatId")).isNull();
+		assertThat(HandshakeQuery.getValue(null, "chatId")).isNull();
+		assertThat(HandshakeQuery.getValue("chatId=C1", "")).isNull();
+		assertThat(HandshakeQuery.getValue("chatId=C1", null)).isNull();
+	}
+
+	@Test
+	void getValueDecoded()
+	{
+		assertThat(HandshakeQuery.getValue("since=2022-10-29T10%3A00%3A00Z", "since")).isEqualTo("2022-10-29T10:00:00Z");
+		assertThat(HandshakeQuery.getValue("name=Jane+Doe", "name")).isEqualTo("Jane Doe");
+		assertThat(HandshakeQuery.getValue("name=%E2%82%AC", "name")).isEqualTo("\u20ac");
+	}
+
+	@Test
+	void getValueMalformedEncoding()
+	{
+		assertThat(HandshakeQuery.getValue("chatId=%ZZ", "chatId")).isNull();
+		assertThat(HandshakeQuery.getValue("chatId=C1%", "chatId")).isNull();
+		assertThat(HandshakeQuery.getValue("chatId=%ZZ&other=1", "other")).isEqualTo("1");
+	}
+
+	@Test
+	void getChatId()
+	{
+		assertThat(HandshakeQuery.getChatId("chatId=C04ABCDEF12-1667000000.123_456", "chatId")).isEqualTo("C04ABCDEF12-1667000000.123_456");
+	}
+
+	@Test
+	void getChatIdRejectsInvalidId()
+	{
+		assertThat(HandshakeQuery.getChatId("chatId=C1%2FC2", "chatId")).isNull();
+		assertThat(HandshakeQuery.getChatId("chatId=C1+C2", "chatId")).isNull();
+		assertThat(HandshakeQuery.getChatId("chatId=%3Cscript%3E", "chatId")).isNull();
+		assertThat(HandshakeQuery.getChatId("other=C1", "chatId")).isNull();
+	}
+
+	@Test
+	void getChatIdLength()
+	{
+		assertThat(HandshakeQuery.getChatId("chatId=" + "a".repeat(128), "chatId")).hasSize(128);
+		assertThat(HandshakeQuery.getChatId("chatId=" + "a".repeat(129), "chatId")).isNull();
+	}
+
+	@Test
+	void getResumeCursor()
+	{
+		ResumeCursor resumeCursor = HandshakeQuery.getResumeCursor("chatId=C1&lastMessageId=1667000001.000100&since=2022-10-29T10%3A00%3A00Z",
+			"lastMessageId", "since");
+
+		assertThat(resumeCursor).isEqualTo(new ResumeCursor("1667000001.000100", Instant.parse("2022-10-29T10:00:00Z")));
+	}
+
+	@Test
+	void getResumeCursorKeepsValidParameter()
+	{
+		assertThat(HandshakeQuery.getResumeCursor("lastMessageId=1667000001.000100&since=yesterday", "lastMessageId", "since"))
+			.isEqualTo(new ResumeCursor("1667000001.000100", null));
+		assertThat(HandshakeQuery.getResumeCursor("lastMessageId=a%2Fb&since=2022-10-29T10:00:00Z", "lastMessageId", "since"))
+			.isEqualTo(new ResumeCursor(null, Instant.parse("2022-10-29T10:00:00Z")));
+	}
+
+	@Test
+	void getResumeCursorMissing()
+	{
+		assertThat(HandshakeQuery.getResumeCursor("chatId=C1", "lastMessageId", "since")).isNull();
+		assertThat(HandshakeQuery.getResumeCursor("lastMessageId=a%2Fb&since=yesterday", "lastMessageId", "since")).isNull();
+		assertThat(HandshakeQuery.getResumeCursor(null, "lastMessageId", "since")).isNull();
+	}
+}